@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.Random;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+
+import imageprocessing.ImageProcessing;
+import main.Picsi;
+import utils.Parallel;
+
+/**
+ * Reproducible random test images for the benchmarks
+ * @author Christoph Stamm
+ *
+ */
+public class BenchmarkImages {
+	/**
+	 * Returns the image type of the given benchmark parameter
+	 * @param type BINARY, GRAY, RGB, INDEXED, or GRAY32
+	 * @return Picsi.IMAGE_TYPE_XXX
+	 */
+	public static int imageType(String type) {
+		switch(type) {
+		case "BINARY": return Picsi.IMAGE_TYPE_BINARY;
+		case "GRAY": return Picsi.IMAGE_TYPE_GRAY;
+		case "RGB": return Picsi.IMAGE_TYPE_RGB;
+		case "INDEXED": return Picsi.IMAGE_TYPE_INDEXED;
+		case "GRAY32": return Picsi.IMAGE_TYPE_GRAY32;
+		default: throw new IllegalArgumentException("unknown image type: " + type);
+		}
+	}
+	
+	/**
+	 * Creates an image with random pixel values
+	 * @param width
+	 * @param height
+	 * @param imageType Picsi.IMAGE_TYPE_XXX
+	 * @return image
+	 */
+	public static ImageData create(int width, int height, int imageType) {
+		ImageData imageData;
+		
+		if (imageType == Picsi.IMAGE_TYPE_INDEXED) {
+			Random random = new Random(imageType);
+			RGB[] rgbs = new RGB[256];
+			for (int i = 0; i < rgbs.length; i++) rgbs[i] = new RGB(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+			imageData = new ImageData(width, height, 8, new PaletteData(rgbs));
+		} else {
+			imageData = ImageProcessing.createImage(width, height, imageType);
+		}
+		
+		final byte[] data = imageData.data;
+		final int bytesPerLine = imageData.bytesPerLine;
+		
+		// the image content doesn't influence the run time of most operations: random bytes are sufficient 
+		Parallel.For(0, height, v -> {
+			Random random = new Random(v);
+			byte[] row = new byte[bytesPerLine];
+			
+			random.nextBytes(row);
+			System.arraycopy(row, 0, data, v*bytesPerLine, bytesPerLine);
+		});
+		return imageData;
+	}
+}
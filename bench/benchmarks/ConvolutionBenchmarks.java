@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imageprocessing.fourier.Convolution;
+import main.Picsi;
+import utils.FloatImage;
+
+/**
+ * Direct and FFT based convolution of a grayscale image with a random (non-separable) square kernel.
+ * The kernel spectrum is cached after the first FFT invocation.
+ * @author Christoph Stamm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvolutionBenchmarks {
+	@Param({ "1024" })
+	public int size;
+	
+	@Param({ "5", "15", "41" })
+	public int kernelSize;
+	
+	private FloatImage m_image;
+	private Convolution.Kernel m_kernel;
+	
+	@Setup
+	public void setup() {
+		Random rnd = new Random(1);
+		double[] values = new double[kernelSize*kernelSize];
+		
+		for (int i = 0; i < values.length; i++) values[i] = rnd.nextDouble();
+		m_image = FloatImage.fromImageData(BenchmarkImages.create(size, size, Picsi.IMAGE_TYPE_GRAY), Picsi.IMAGE_TYPE_GRAY);
+		m_kernel = new Convolution.Kernel(kernelSize, kernelSize, values);
+	}
+	
+	@Benchmark
+	public FloatImage direct() {
+		return Convolution.convolve(m_image, m_kernel, Convolution.METHOD_DIRECT);
+	}
+	
+	@Benchmark
+	public FloatImage fft() {
+		return Convolution.convolve(m_image, m_kernel, Convolution.METHOD_FFT);
+	}
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imageprocessing.fourier.FFT;
+import imageprocessing.fourier.FHT;
+import main.Picsi;
+import utils.FrequencyDomain;
+
+/**
+ * Fourier and Hartley transforms of grayscale images.
+ * The default sizes end at 4096, because the spectrum of an 8192x8192 image doesn't fit into 
+ * a reasonable heap as long as it is stored in Complex objects; use -p size=8192 with a larger -Xmx.
+ * @author Christoph Stamm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx12g" })
+public class FourierBenchmarks {
+	@Param({ "256", "1024", "4096" })
+	public int size;
+	
+	private ImageData m_image;
+	private FrequencyDomain m_spectrum;
+	private FHT m_fhtInput, m_fht;
+	
+	@Setup
+	public void setup() {
+		m_image = BenchmarkImages.create(size, size, Picsi.IMAGE_TYPE_GRAY);
+		m_spectrum = FFT.fft2D(m_image);
+		m_fhtInput = new FHT(m_image);
+	}
+	
+	@Setup(Level.Invocation)
+	public void setupFHT() {
+		// FHT.transform works in place
+		m_fht = m_fhtInput.clone();
+	}
+	
+	@Benchmark
+	public FrequencyDomain fft2D() {
+		return FFT.fft2D(m_image);
+	}
+	
+	@Benchmark
+	public ImageData ifft2D() {
+		return FFT.ifft2D(m_spectrum);
+	}
+	
+	@Benchmark
+	public FHT fhtTransform() {
+		m_fht.transform();
+		return m_fht;
+	}
+}
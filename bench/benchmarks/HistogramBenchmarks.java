@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import imageprocessing.ImageProcessing;
+import main.Picsi;
+
+/**
+ * Histograms: ImageProcessing.histogram for images with at most 8 bits per pixel, 
+ * ImageProcessing.histogramRGB for all three channels of RGB images
+ * @author Christoph Stamm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx8g" })
+public class HistogramBenchmarks {
+	@Param({ "256", "1024", "4096", "8192" })
+	public int size;
+	
+	@Param({ "BINARY", "GRAY", "RGB", "INDEXED" })
+	public String type;
+	
+	private ImageData m_image;
+	private int m_imageType;
+	
+	@Setup
+	public void setup() {
+		m_imageType = BenchmarkImages.imageType(type);
+		m_image = BenchmarkImages.create(size, size, m_imageType);
+	}
+	
+	@Benchmark
+	public void histogram(Blackhole bh) {
+		if (m_imageType == Picsi.IMAGE_TYPE_RGB) {
+			for (int c = 0; c < 3; c++) bh.consume(ImageProcessing.histogramRGB(m_image, c));
+		} else {
+			bh.consume(ImageProcessing.histogram(m_image, 1 << m_image.depth));
+		}
+	}
+}
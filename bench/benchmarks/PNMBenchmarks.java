@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import files.ImageFiles;
+import files.PNM;
+
+/**
+ * Reading and writing of binary PBM, PGM, and PPM files
+ * @author Christoph Stamm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx8g" })
+public class PNMBenchmarks {
+	@Param({ "256", "1024", "4096", "8192" })
+	public int size;
+	
+	@Param({ "BINARY", "GRAY", "RGB" })
+	public String type;
+	
+	private ImageData m_image;
+	private int m_imageType, m_fileType;
+	private File m_input, m_output;
+	
+	@Setup
+	public void setup() throws Exception {
+		ImageFiles.registerUserImageFiles();
+		m_imageType = BenchmarkImages.imageType(type);
+		m_image = BenchmarkImages.create(size, size, m_imageType);
+		
+		String ext = (type.equals("BINARY")) ? ".pbm" : (type.equals("GRAY")) ? ".pgm" : ".ppm";
+		m_fileType = ImageFiles.determinefileType(ext);
+		m_input = File.createTempFile("picsi-in", ext);
+		m_output = File.createTempFile("picsi-out", ext);
+		new PNM().save(m_input.getPath(), m_fileType, m_image, m_imageType);
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		m_input.delete();
+		m_output.delete();
+	}
+	
+	@Benchmark
+	public ImageData read() throws Exception {
+		return new PNM().read(m_input.getPath());
+	}
+	
+	@Benchmark
+	public File write() throws Exception {
+		new PNM().save(m_output.getPath(), m_fileType, m_image, m_imageType);
+		return m_output;
+	}
+}
@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imageprocessing.colors.Dither;
+import imageprocessing.colors.Grayscale;
+import imageprocessing.colors.Inverter;
+
+/**
+ * Point operations and dithering for all image types
+ * @author Christoph Stamm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx8g" })
+public class PixelBenchmarks {
+	@Param({ "256", "1024", "4096", "8192" })
+	public int size;
+	
+	@Param({ "BINARY", "GRAY", "RGB", "INDEXED", "GRAY32" })
+	public String type;
+	
+	private ImageData m_image;
+	private int m_imageType;
+	private final Grayscale m_grayscale = new Grayscale();
+	private final Dither m_dither = new Dither();
+	
+	@Setup
+	public void setup() {
+		m_imageType = BenchmarkImages.imageType(type);
+		m_image = BenchmarkImages.create(size, size, m_imageType);
+	}
+	
+	@Benchmark
+	public ImageData invert() {
+		// in place: the input alternates between the image and its inverse
+		Inverter.invert(m_image, m_imageType);
+		return m_image;
+	}
+	
+	@Benchmark
+	public ImageData grayscale() {
+		return m_grayscale.run(m_image, m_imageType);
+	}
+	
+	@Benchmark
+	public ImageData dither() {
+		return m_dither.run(m_image, m_imageType);
+	}
+}
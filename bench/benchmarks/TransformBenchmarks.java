@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imageprocessing.transform.Rotate;
+import imageprocessing.transform.Scale;
+
+/**
+ * Geometric transforms with nearest neighbor (0) and bilinear (1) interpolation
+ * @author Christoph Stamm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx8g" })
+public class TransformBenchmarks {
+	@Param({ "256", "1024", "4096", "8192" })
+	public int size;
+	
+	@Param({ "BINARY", "GRAY", "RGB", "INDEXED", "GRAY32" })
+	public String type;
+	
+	@Param({ "0", "1" })
+	public int method;
+	
+	private ImageData m_image;
+	
+	@Setup
+	public void setup() {
+		m_image = BenchmarkImages.create(size, size, BenchmarkImages.imageType(type));
+	}
+	
+	@Benchmark
+	public ImageData rotate() {
+		return Rotate.rotate(m_image, 30, method);
+	}
+	
+	@Benchmark
+	public ImageData scale() {
+		return Scale.scale(m_image, 1.5, method);
+	}
+}
@@ -9,9 +9,13 @@ import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.widgets.*;
 
+import imageprocessing.ImageProcessing;
 import imageprocessing.fourier.FFT;
+import utils.Complex;
 import utils.FrequencyDomain;
+import utils.FrequencyFilter;
 import utils.Parallel;
+import utils.ShiftedSpectrum;
 
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.layout.RowLayout;
@@ -39,6 +43,7 @@ public class FrequencyEdt extends Dialog {
 	private Composite m_outputComp;
 	private FrequencyDomain m_fd;
 	private ImageData m_transformed;
+	private double[][] m_spatial;		// real inverse transform of m_fd before clamping
 	private boolean m_disableUpdate = false;
 	
 	public FrequencyEdt(Shell parent) {
@@ -91,17 +96,14 @@ public class FrequencyEdt extends Dialog {
 			    	final int size = width*height;
 
 			    	if (m_shiftedBtn.getSelection()) {
-			    		final int hD2 = height/2;
-			    		final int wD2 = width/2;
-			    		final int v2 = index/width - hD2;
-						final int v = (v2 < 0) ? height + v2 : v2;
-			    		final int u2 = index%width - wD2;
-						final int u = (u2 < 0) ? width + u2 : u2;
+			    		final ShiftedSpectrum view = m_fd.shifted();
+			    		final int y = index/width;
+			    		final int x = index%width;
 			    		
-						item.setText(V, Integer.toString(v2));
-						item.setText(U, Integer.toString(u2));
-						item.setText(Amp, Double.toString(m_fd.getAmplitude(u, v)/size));
-						item.setText(Phi, Double.toString(m_fd.getPhase(u, v)));
+						item.setText(V, Integer.toString(y - height/2));
+						item.setText(U, Integer.toString(x - width/2));
+						item.setText(Amp, Double.toString(view.getAmplitude(x, y)/size));
+						item.setText(Phi, Double.toString(view.getPhase(x, y)));
 			    	} else {
 			    		final int v = index/width;
 			    		final int u = index%width;
@@ -250,6 +252,7 @@ public class FrequencyEdt extends Dialog {
 		m_shiftedBtn.addSelectionListener(new SelectionAdapter() {
 			@Override
 			public void widgetSelected(SelectionEvent event) {
+				// the spectrum is unchanged: m_transformed is still valid
 				updateTable();
 				updateOutput(views, 0);
 			}
@@ -386,6 +389,7 @@ public class FrequencyEdt extends Dialog {
     	final ImageData inData = views.getImage(true);
     	m_fd = FFT.fft2D(inData);
     	updateTable();
+    	updateTransformed();
 
     	// update output: recursively calling update is prevented in updateOutput
     	updateOutput(views, 0);
@@ -405,14 +409,38 @@ public class FrequencyEdt extends Dialog {
     	
     	m_table.clearAll();
     	m_table.setItemCount(size);
-
-    	FrequencyDomain fd = m_fd.clone();
-    	m_transformed = FFT.ifft2D(fd);
+    }
+    
+    /**
+     * Computes the inverse transform of the whole frequency domain object
+     */
+    private void updateTransformed() {
+    	m_spatial = FFT.ifft2Dreal(m_fd);
+    	m_transformed = toImage(m_spatial);
+    }
+    
+    /**
+     * Clamps the spatial data to an image of the input image format
+     */
+    private ImageData toImage(double[][] spatial) {
+    	final ImageData outData = new ImageData(m_fd.m_width, m_fd.m_height, m_fd.m_depth, m_fd.m_palette);
+    	
+    	Parallel.For(0, outData.height, v -> {
+    		final double[] row = spatial[v];
+    		final int pos = v*outData.bytesPerLine;
+    		
+    		for (int u=0; u < outData.width; u++) {
+    			outData.data[pos + u] = (byte)ImageProcessing.clamp8(row[u]);
+    		}
+    	});
+    	return outData;
     }
     
     /**     
      * Read table item and update frequency domain object
      * Amplitudes are normalized by 1/(width*height), hence amplitude(0,0) is mean image intensity in range [0,255]    
+     * The inverse transform is updated incrementally: the sinusoids of the changed coefficient 
+     * and of its conjugate are added to the spatial data.
      */   
     private boolean updateFD(TableItem item) {
     	final int width = m_fd.getSpectrumWidth();
@@ -432,10 +460,16 @@ public class FrequencyEdt extends Dialog {
     			if (v < 0) v += height;				
     			if (u < 0) u += width;    			    		
     		}    		
+    		final int mu = (width - u)%width, mv = (height - v)%height;
+    		final Complex old = m_fd.getValue(u, v);
+    		final Complex oldMirror = m_fd.getValue(mu, mv);
+    		
     		m_fd.setValue(u, v, amp, phi);
-
-    		FrequencyDomain fd = m_fd.clone();
-        	m_transformed = FFT.ifft2D(fd);
+    		FFT.addCoefficient(m_spatial, width, height, u, v, m_fd.getValue(u, v).sub(old));
+    		if (mu != u || mv != v) {
+    			FFT.addCoefficient(m_spatial, width, height, mu, mv, m_fd.getValue(mu, mv).sub(oldMirror));
+    		}
+        	m_transformed = toImage(m_spatial);
         	return true;
     	} catch(NumberFormatException ex) {  
     		return false;
@@ -449,55 +483,23 @@ public class FrequencyEdt extends Dialog {
      */
     private void applyFilter(String s, boolean lowPass) {
     	final int sigmoidScale = 1;
-		final int sigmoidDomain = 16*sigmoidScale;
-    	final int width = m_fd.getSpectrumWidth();
-    	final int height = m_fd.getSpectrumHeight();
-		final int hD2 = height/2;
-		final int wD2 = width/2;
 
 		try {
-            double r = Double.parseDouble(s) - ((lowPass) ? sigmoidDomain/2 : -sigmoidDomain/2);
+            final double r = Double.parseDouble(s);
+            final double edge = FrequencyFilter.SigmoidWidth*sigmoidScale;	// half width of the band edge
             
-            if (r >= 0) {
-            	Parallel.For(-hD2, height - hD2, v2 -> {
-            		final int v = (v2 < 0) ? v2 + height : v2;
-            		
-        			for (int u2=-wD2; u2 < width - wD2; u2++) {
-        				final int u = (u2 < 0) ? u2 + width : u2;
-                		final double dist = Math.hypot(u2, v2);
-                		
-                		if ((u != 0 || v != 0) && (lowPass && dist > r || !lowPass && dist < r)) {
-                			if (lowPass) {
-	                			if (dist < r + sigmoidDomain) {
-	                				final double t = dist - r - sigmoidDomain/2;
-	                				m_fd.multiply(u, v, 1 - sigmoid(t/sigmoidScale));
-	                			} else {
-	                           		m_fd.setValue(u, v, 0, 0);
-	                			}
-                			} else {
-                				if (dist >= r - sigmoidDomain) {
-	                				final double t = dist - r + sigmoidDomain/2;
-	                				m_fd.multiply(u, v, sigmoid(t/sigmoidScale));                					
-                				} else {
-	                           		m_fd.setValue(u, v, 0, 0);
-                				}
-                			}
-                		}
-        				
-        			}
-          		});
+            // the inner end of the band edge must not be negative
+            if ((lowPass ? r - edge : r + edge) >= 0) {
+            	m_fd.filter(lowPass ? FrequencyFilter.sigmoidLowPass(r, sigmoidScale) : FrequencyFilter.sigmoidHighPass(r, sigmoidScale));
             	
             	updateTable();
+            	updateTransformed();
             }
         }
         catch(NumberFormatException ex) {
         }
     }
 
-	private static double sigmoid(double t) {
-		return 0.5 + Math.tanh(t/2)/2;
-	}
-
 	/**
      * Update output image
      * @param views
@@ -527,13 +529,13 @@ public class FrequencyEdt extends Dialog {
 	    	views.close(false); 
     		break;
     	case 2: 
-    		outData = FFT.getPowerSpectrum(m_shiftedBtn.getSelection() ? m_fd.swapQuadrants() : m_fd);
+    		outData = FFT.getPowerSpectrum(m_fd, m_shiftedBtn.getSelection());
 			m_disableUpdate = true;
 			views.showImageInSecondView(outData);
 			m_disableUpdate = false;
 			break;
     	case 3:
-			outData = FFT.getPhaseSpectrum(m_shiftedBtn.getSelection() ? m_fd.swapQuadrants() : m_fd);
+			outData = FFT.getPhaseSpectrum(m_fd, m_shiftedBtn.getSelection(), true);
 			m_disableUpdate = true;
 			views.showImageInSecondView(outData);
 			m_disableUpdate = false;
@@ -0,0 +1,36 @@
+package gui;
+
+import imageprocessing.IImageProcessor;
+
+/**
+ * Registration of image operations: implemented by the user menus and by the headless batch processor
+ * @author Christoph Stamm
+ *
+ */
+public interface IOperationRegistry {
+	/**
+	 * Registers an image operation
+	 * @param text menu text: '&' marks the mnemonic, the accelerator text follows after a tab
+	 * @param accelerator SWT accelerator or 0
+	 * @param proc image operation
+	 */
+	public void add(String text, int accelerator, IImageProcessor proc);
+	
+	/**
+	 * Registers a sub menu
+	 * @param text menu text
+	 * @return registry of the sub menu
+	 */
+	public IOperationRegistry addMenu(String text);
+	
+	/**
+	 * Returns the plain operation name of a menu text, e.g. "C&ropping\tCtrl+R" -> "Cropping"
+	 * @param text menu text
+	 * @return operation name
+	 */
+	public static String operationName(String text) {
+		int last = text.indexOf('\t');
+		if (last == -1) last = text.length();
+		return text.substring(0, last).replace("&", "");
+	}
+}
@@ -23,19 +23,26 @@ public class ImageMenu extends UserMenu {
 	 */
 	public ImageMenu(MenuItem item, TwinView views, MRU mru) {
 		super(item, views, mru);
+		register(this);
+	}
+	
+	/**
+	 * Registration of image operations, used by the menu and by the headless batch processor
+	 * @param menu registry
+	 */
+	public static void register(IOperationRegistry menu) {
+		menu.add("C&ropping\tCtrl+R", 								SWT.CTRL | 'R', new Cropping());
+		menu.add("&Invert\tF1", 										SWT.F1, 		new Inverter());
+		menu.add("MyInvert", 0, new MyInverter());
+		menu.add("Grayscale", 0, new Grayscale());
+		menu.add("Dither", 0, new Dither());
 
-		add("C&ropping\tCtrl+R", 								SWT.CTRL | 'R', new Cropping());
-		add("&Invert\tF1", 										SWT.F1, 		new Inverter());
-		add("MyInvert", 0, new MyInverter());
-		add("Grayscale", 0, new Grayscale());
-		add("Dither", 0, new Dither());
-
-		UserMenu channels = addMenu("Channel");		
+		IOperationRegistry channels = menu.addMenu("Channel");		
 		channels.add("R\tCtrl+1", 								SWT.CTRL | '1', new ChannelRGB(0));
 		channels.add("G\tCtrl+2", 								SWT.CTRL | '2', new ChannelRGB(1));
 		channels.add("B\tCtrl+3", 								SWT.CTRL | '3', new ChannelRGB(2));
 
-		UserMenu transform = addMenu("Transform");
+		IOperationRegistry transform = menu.addMenu("Transform");
 		transform.add("Rotate", 0, new Rotate());
 		transform.add("Rotate and scale", 0, new RotateAndScale());
 		transform.add("Scale", 0, new Scale());
@@ -22,6 +22,8 @@ import main.Picsi;
 public class OptionPane extends Dialog {
 	private static final int SPACING = 10;
 	private static final int MAX_WIDTH = 640;
+	
+	private static int s_openCount; // number of open option panes
 
 	private Shell m_shell;
 	private Image m_image;
@@ -44,10 +46,15 @@ public class OptionPane extends Dialog {
 		m_shell.pack();
 		m_shell.open();
 		Display display = m_shell.getDisplay();
-		while (!m_shell.isDisposed()) {
-			if (!display.readAndDispatch()) {
-				display.sleep();
+		s_openCount++;
+		try {
+			while (!m_shell.isDisposed()) {
+				if (!display.readAndDispatch()) {
+					display.sleep();
+				}
 			}
+		} finally {
+			s_openCount--;
 		}
 		return m_returnCode;
 	}
@@ -179,7 +186,28 @@ public class OptionPane extends Dialog {
 		return gc.stringExtent(text).x + SPACING;
 	}
 
+	/**
+	 * Returns true if an option pane is open: must be called in the UI thread
+	 * @return
+	 */
+	public static boolean isOpen() {
+		return s_openCount > 0;
+	}
+
+	/**
+	 * Shows a modal option dialog. Can be called from any thread, e.g. by image operations running in a worker thread.
+	 * @param message
+	 * @param style
+	 * @param options
+	 * @param defOption
+	 * @return index of the selected option or -1
+	 */
 	public static int showOptionDialog(String message, int style, Object[] options, int defOption) {
+		if (Display.getCurrent() == null) {
+			final int[] result = new int[1];
+			Picsi.s_shell.getDisplay().syncExec(() -> result[0] = showOptionDialog(message, style, options, defOption));
+			return result[0];
+		}
 		OptionPane op = new OptionPane(Picsi.s_shell, style);
 		op.m_title = "Options";
 		op.m_message = message;
@@ -187,7 +215,17 @@ public class OptionPane extends Dialog {
 		return op.open(options, defOption, false);
 	}
 	
+	/**
+	 * Shows a modal input dialog. Can be called from any thread.
+	 * @param message
+	 * @return input text or null
+	 */
 	public static String showInputDialog(String message) {
+		if (Display.getCurrent() == null) {
+			final String[] result = new String[1];
+			Picsi.s_shell.getDisplay().syncExec(() -> result[0] = showInputDialog(message));
+			return result[0];
+		}
 		OptionPane op = new OptionPane(Picsi.s_shell, SWT.ICON_QUESTION);
 		op.m_title = "Input";
 		op.m_message = message;
@@ -0,0 +1,121 @@
+package gui;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Dialog;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Shell;
+
+import utils.Parallel;
+
+/**
+ * Progress dialog of a running image operation: shows the number of completed iterations
+ * of the parallel loops of its context and cancels the context on request.
+ * The dialog is a progress listener: progress is reported by worker threads and shown in the UI thread.
+ * @author Christoph Stamm
+ *
+ */
+public class ProgressDialog extends Dialog implements Parallel.ProgressListener {
+	private final Display m_display;
+	private final AtomicBoolean m_pending = new AtomicBoolean();	// an update of the label is pending
+	private volatile long m_completed;
+	private boolean m_cancelled;
+	private Shell m_shell;
+	private Label m_label;
+	private Parallel.Context m_context;
+
+	public ProgressDialog(Shell parent, String title) {
+		super(parent, SWT.NONE);
+		setText(title);
+		m_display = parent.getDisplay();
+	}
+
+	/**
+	 * Opens the dialog without waiting: Cancel cancels the context
+	 * @param context context of the running operation
+	 */
+	public void open(Parallel.Context context) {
+		m_context = context;
+		m_shell = new Shell(getParent(), SWT.TITLE | SWT.BORDER | SWT.APPLICATION_MODAL);
+		m_shell.setText(getText());
+		{
+			GridLayout gl = new GridLayout(1, false);
+			gl.verticalSpacing = 7;
+			gl.marginHeight = 7;
+			gl.marginWidth = 7;
+			m_shell.setLayout(gl);
+		}
+
+		m_label = new Label(m_shell, SWT.NONE);
+		m_label.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+		m_label.setText(status());
+
+		Button cancelBtn = new Button(m_shell, SWT.PUSH);
+		cancelBtn.setText(SWT.getMessage("SWT_Cancel"));
+		cancelBtn.setLayoutData(new GridData(SWT.CENTER, SWT.CENTER, false, false));
+		cancelBtn.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent event) {
+				cancel();
+				cancelBtn.setEnabled(false);
+				m_label.setText("Cancelling...");
+			}
+		});
+		m_shell.setDefaultButton(cancelBtn);
+
+		// closing the dialog cancels the operation, too
+		m_shell.addListener(SWT.Close, e -> {
+			e.doit = false;
+			cancel();
+		});
+		m_shell.setSize(m_shell.computeSize(Math.max(260, m_shell.computeSize(SWT.DEFAULT, SWT.DEFAULT).x), SWT.DEFAULT));
+		m_shell.setLocation(getParent().getLocation().x + (getParent().getSize().x - m_shell.getSize().x)/2,
+			getParent().getLocation().y + (getParent().getSize().y - m_shell.getSize().y)/2);
+		m_shell.open();
+	}
+
+	/**
+	 * Returns true if the user has cancelled the operation
+	 * @return
+	 */
+	public boolean isCancelled() {
+		return m_cancelled;
+	}
+
+	/**
+	 * Closes the dialog if it is open
+	 */
+	public void close() {
+		if (m_shell != null && !m_shell.isDisposed()) m_shell.dispose();
+	}
+
+	/**
+	 * Is called by worker threads: the label is updated asynchronously in the UI thread
+	 */
+	@Override
+	public void progress(long completed) {
+		m_completed = completed;
+		if (m_pending.compareAndSet(false, true)) {
+			m_display.asyncExec(() -> {
+				m_pending.set(false);
+				if (m_label != null && !m_label.isDisposed() && !m_context.isCancelled()) m_label.setText(status());
+			});
+		}
+	}
+
+	private void cancel() {
+		m_cancelled = true;
+		m_context.cancel();
+	}
+
+	private String status() {
+		return "Running... " + m_completed + " rows/tiles completed";
+	}
+}
@@ -1,22 +1,32 @@
 package gui;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.MenuItem;
 
 import imageprocessing.IImageProcessor;
+import utils.Parallel;
 
 /**
  * Base class for user defined menus
  * @author Christoph Stamm
  *
  */
-public class UserMenu {
+public class UserMenu implements IOperationRegistry {
+	private static final long Timeout = Long.getLong("picsi.timeout", 0); // maximum duration of an image operation in ms, 0 = unlimited
+	private static final int ProgressDelay = 300; // the progress dialog is opened if an image operation takes longer (ms)
+	
+	private static boolean s_running; // an image operation is running
+	
 	private TwinView m_views;
 	private MRU m_mru;
 	private Menu m_menu;
@@ -46,6 +56,7 @@ public class UserMenu {
 		});
 	}
 	
+	@Override
 	public void add(String text, int accelerator, IImageProcessor proc) {
 		MenuItem mi = new MenuItem(m_menu, SWT.PUSH);
 		mi.setText(text);
@@ -59,6 +70,7 @@ public class UserMenu {
 		});
 	}
 	
+	@Override
 	public UserMenu addMenu(String text) {
 		MenuItem mi = new MenuItem(m_menu, SWT.CASCADE);
 		mi.setText(text);
@@ -91,20 +103,82 @@ public class UserMenu {
 		return false;
 	}
 	
+	/**
+	 * Runs the image operation in a worker thread, while the UI thread keeps dispatching events.
+	 * Parallel loops of the operation are stopped by the Cancel button of the progress dialog or after the timeout.
+	 * Interactive operations are run in the UI thread and are only stopped after the timeout.
+	 * @param mi menu item of the image operation
+	 */
 	private void run(MenuItem mi) {
+		if (s_running) return;
+		
+		final IImageProcessor proc = (IImageProcessor)mi.getData();
+		final ImageData input = m_views.getImage(true);
+		final int imageType = m_views.getImageType(true);
+		
+		if (proc.isInteractive()) {
+			// widgets can only be used in the UI thread
+			try {
+				ImageData output = Parallel.run(new Parallel.Context(Timeout, null), () -> proc.run(input, imageType));
+				if (output != null) {
+					m_views.showImageInSecondView(output);
+				}
+			} catch(Throwable e) {
+				String location = IOperationRegistry.operationName(mi.getText());
+				m_views.m_mainWnd.showErrorDialog("ImageProcessing", location, e);
+			}
+			return;
+		}
+		
+		final Display display = m_menu.getDisplay();
+		final ProgressDialog dlg = new ProgressDialog(m_menu.getShell(), IOperationRegistry.operationName(mi.getText()));
+		final Parallel.Context context = new Parallel.Context(Timeout, dlg);
+		final AtomicBoolean done = new AtomicBoolean();
+		final ImageData[] output = new ImageData[1];
+		final Throwable[] failure = new Throwable[1];
+		
+		Thread worker = new Thread(() -> {
+			try {
+				output[0] = Parallel.run(context, () -> proc.run(input, imageType));
+			} catch(Throwable e) {
+				failure[0] = e;
+			} finally {
+				done.set(true);
+				display.wake();
+			}
+		}, "Image operation");
+		worker.setDaemon(true);
+		
+		s_running = true;
 		try {
-			IImageProcessor proc = (IImageProcessor)mi.getData();
+			worker.start();
 			
-			ImageData output = proc.run(m_views.getImage(true), m_views.getImageType(true));
-			if (output != null) {
-				m_views.showImageInSecondView(output);
-			}		
-		} catch(Throwable e) {
-			String text = mi.getText();
-			int last = text.indexOf('\t');
-			if (last == -1) last = text.length();
-			String location = text.substring(0, last).replace("&", "");
-			m_views.m_mainWnd.showErrorDialog("ImageProcessing", location, e);
-		}						
+			// the progress dialog isn't opened while the operation asks for options
+			display.timerExec(ProgressDelay, new Runnable() {
+				@Override
+				public void run() {
+					if (done.get()) return;
+					if (OptionPane.isOpen()) display.timerExec(ProgressDelay, this);
+					else dlg.open(context);
+				}
+			});
+			while (!done.get()) {
+				if (!display.readAndDispatch()) {
+					display.sleep();
+				}
+			}
+		} finally {
+			dlg.close();
+			s_running = false;
+		}
+		
+		if (failure[0] instanceof CancellationException && dlg.isCancelled()) {
+			// cancelled by the user
+		} else if (failure[0] != null) {
+			String location = IOperationRegistry.operationName(mi.getText());
+			m_views.m_mainWnd.showErrorDialog("ImageProcessing", location, failure[0]);
+		} else if (output[0] != null) {
+			m_views.showImageInSecondView(output[0]);
+		}
 	}
 }
@@ -18,6 +18,11 @@ public class Cropping implements IImageProcessor {
 		return true;
 	}
 
+	@Override
+	public boolean isInteractive() {
+		return true;
+	}
+
 	@Override
 	public ImageData run(ImageData inData, int imageType) {
 		final float zoom = Picsi.getTwinView().getZoomFactor(true);
@@ -0,0 +1,42 @@
+package imageprocessing;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import utils.FloatImage;
+
+/**
+ * Image processing interface for operations working on planar float images.
+ * Chains of such operations can pass float images from one operation to the next,
+ * without precision loss and without converting to ImageData between the operations.
+ * 
+ * @author Christoph Stamm
+ *
+ */
+public interface IFloatImageProcessor extends IImageProcessor {
+	/**
+	 * Returns the image type of the output image
+	 * @param imageType one of the image types define in Picsi.IMAGE_TYPE_XXX
+	 * @return image type of the output image for an input image of the given type
+	 */
+	public int getOutputType(int imageType);
+	
+	/**
+	 * Runs the image processing routine
+	 * @param inImage input image: might be used as output image
+	 * @param imageType one of the image types define in Picsi.IMAGE_TYPE_XXX
+	 * @return output image or null if the image processing cannot produce a useful output
+	 */
+	public FloatImage run(FloatImage inImage, int imageType);
+	
+	/**
+	 * Runs the image processing routine on a float copy of the input image data
+	 * @param inData input image data
+	 * @param imageType one of the image types define in Picsi.IMAGE_TYPE_XXX
+	 * @return output image or null if the image processing cannot produce a useful output
+	 */
+	@Override
+	public default ImageData run(final ImageData inData, int imageType) {
+		FloatImage outImage = run(FloatImage.fromImageData(inData, imageType), imageType);
+		return (outImage != null) ? outImage.toImageData(getOutputType(imageType)) : null;
+	}
+}
@@ -23,4 +23,14 @@ public interface IImageProcessor {
 	 * @return output image or null if the image processing cannot produce a useful output
 	 */
 	public ImageData run(final ImageData inData, int imageType);
+	
+	/**
+	 * Returns true if the image processing routine uses widgets, e.g. trackers or views of the main window.
+	 * Interactive routines are run in the UI thread, all others in a worker thread.
+	 * Prompts of non-interactive routines have to use gui.OptionPane.
+	 * @return true if the routine has to be run in the UI thread
+	 */
+	public default boolean isInteractive() {
+		return false;
+	}
 }
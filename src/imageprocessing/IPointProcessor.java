@@ -0,0 +1,40 @@
+package imageprocessing;
+
+import java.util.function.IntUnaryOperator;
+
+import org.eclipse.swt.graphics.PaletteData;
+
+/**
+ * Image processing interface for point operations: each output pixel only depends on the input pixel 
+ * at the same position. Chained point operations are fused into one image pass by Pipeline.
+ * 
+ * @author Christoph Stamm
+ *
+ */
+public interface IPointProcessor extends IImageProcessor {
+	/**
+	 * Returns true if the operation is a point operation for images of the given type
+	 * @param imageType one of the image types define in Picsi.IMAGE_TYPE_XXX
+	 * @return false if the operation has to be run as a whole for this image type
+	 */
+	public default boolean isPointOperation(int imageType) {
+		return true;
+	}
+
+	/**
+	 * Returns the image type of the output image
+	 * @param imageType one of the image types define in Picsi.IMAGE_TYPE_XXX
+	 * @return image type of the output image for an input image of the given type
+	 */
+	public int getOutputType(int imageType);
+
+	/**
+	 * Creates the pixel function of this operation for input images of the given palette and type.
+	 * Output pixel values refer to the input palette if the output type is equal to the input type,
+	 * otherwise to the palette of ImageProcessing.createImage(..., outputType).
+	 * @param palette palette of the input image
+	 * @param imageType one of the image types define in Picsi.IMAGE_TYPE_XXX
+	 * @return function mapping an input pixel value to an output pixel value
+	 */
+	public IntUnaryOperator getPixelFunction(PaletteData palette, int imageType);
+}
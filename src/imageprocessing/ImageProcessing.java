@@ -1,6 +1,7 @@
 package imageprocessing;
 
 import utils.Parallel;
+import utils.PixelAccess;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
@@ -113,19 +114,23 @@ public class ImageProcessing {
 		assert 0 < nClasses && nClasses <= maxClasses : "wrong number of classes: " + nClasses;
 		
 		int[] histo = new int[nClasses];
+		PixelAccess pixels = PixelAccess.create(inData);
 		
 		Parallel.For(0, inData.height,
-			// creator
-			() -> new int[nClasses],
+			// creator: histogram and row buffer of a chunk
+			() -> new int[][] { new int[nClasses], new int[inData.width] },
 			// loop body
-			(v, h) -> {
-				for (int u=0; u < inData.width; u++) {
-					h[inData.getPixel(u, v)*nClasses/maxClasses]++;
+			(v, data) -> {
+				final int[] h = data[0], row = data[1];
+				
+				pixels.getPixels(0, v, row.length, row, 0);
+				for (int u=0; u < row.length; u++) {
+					h[row[u]*nClasses/maxClasses]++;
 				}
 			},
 			// reducer
-			h -> {
-				for(int i=0; i < histo.length; i++) histo[i] += h[i];
+			data -> {
+				for(int i=0; i < histo.length; i++) histo[i] += data[0][i];
 			}
 		);
 		return histo;
@@ -142,6 +147,7 @@ public class ImageProcessing {
 		assert inData.palette.isDirect : "wrong image type";
 	
 		int[] histo = new int[nClasses];
+		PixelAccess pixels = PixelAccess.create(inData);
 		final int mask, shift;
 		switch(channel) {
 		case 0: mask = inData.palette.redMask; shift = inData.palette.redShift; break;
@@ -150,19 +156,22 @@ public class ImageProcessing {
 		}
 		
 		Parallel.For(0, inData.height,
-			// creator
-			() -> new int[nClasses],
+			// creator: histogram and row buffer of a chunk
+			() -> new int[][] { new int[nClasses], new int[inData.width] },
 			// loop body
-			(v, h) -> {
-				for (int u=0; u < inData.width; u++) {
-					final int pixel = inData.getPixel(u, v);
+			(v, data) -> {
+				final int[] h = data[0], row = data[1];
+				
+				pixels.getPixels(0, v, row.length, row, 0);
+				for (int u=0; u < row.length; u++) {
+					final int pixel = row[u];
 					// mask can be negative -> use >>> instead of >>
 					h[(shift > 0) ? (mask & pixel) << shift : (mask & pixel) >>> -shift]++;					
 				}
 			},
 			// reducer
-			h -> {
-				for(int i=0; i < histo.length; i++) histo[i] += h[i];
+			data -> {
+				for(int i=0; i < histo.length; i++) histo[i] += data[0][i];
 			}
 		);
 		return histo;
@@ -170,14 +179,19 @@ public class ImageProcessing {
 	
 	/**
 	 * Crops input image of given input rectangle
+	 * @throws IllegalArgumentException if the rectangle isn't inside of the input image
 	 */
 	public static ImageData crop(ImageData inData, int x, int y, int w, int h) {
+		if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > inData.width || y + h > inData.height) SWT.error(SWT.ERROR_INVALID_ARGUMENT);
+		
 		ImageData outData = new ImageData(w, h, inData.depth, inData.palette);
+		PixelAccess inPixels = PixelAccess.create(inData);
+		PixelAccess outPixels = PixelAccess.create(outData);
+		int[] row = new int[w];
 		
 		for (int v=0; v < h; v++) {
-			for (int u=0; u < w; u++) {
-				outData.setPixel(u, v, inData.getPixel(u + x, v + y));
-			}
+			inPixels.getPixels(x, v + y, w, row, 0);
+			outPixels.setPixels(0, v, w, row, 0);
 			if (inData.getTransparencyType() == SWT.TRANSPARENCY_ALPHA) {
 				for (int u=0; u < w; u++) {
 					outData.setAlpha(u, v, inData.getAlpha(u + x, v + y));
@@ -189,16 +203,20 @@ public class ImageProcessing {
 	
 	/**
 	 * Inserts image insData into image data at position (x,y)
+	 * @throws IllegalArgumentException if the position is negative
 	 */
 	public static boolean insert(ImageData data, ImageData insData, int x, int y) {
 		if (data.depth != insData.depth) return false;
+		if (x < 0 || y < 0) SWT.error(SWT.ERROR_INVALID_ARGUMENT);
 		int x2 = Math.min(data.width, x + insData.width);
 		int y2 = Math.min(data.height, y + insData.height);
+		PixelAccess pixels = PixelAccess.create(data);
+		PixelAccess insPixels = PixelAccess.create(insData);
+		int[] row = new int[Math.max(0, x2 - x)];
 		
 		for (int v=y; v < y2; v++) {
-			for (int u=x; u < x2; u++) {
-				data.setPixel(u, v, insData.getPixel(u - x, v - y));
-			}
+			insPixels.getPixels(0, v - y, row.length, row, 0);
+			pixels.setPixels(x, v, row.length, row, 0);
 		}
 		return true;
 	}
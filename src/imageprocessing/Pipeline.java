@@ -0,0 +1,148 @@
+package imageprocessing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+
+import main.Picsi;
+import utils.Parallel;
+import utils.PixelAccess;
+
+/**
+ * Chain of image operations. Consecutive point operations are fused into one parallel tile pass,
+ * hence no intermediate images are created between them. Other operations are run as a whole 
+ * on a materialized intermediate image.
+ * 
+ * Example: new Pipeline().add(new Grayscale()).add(new Inverter()).add(new Dither())
+ * 
+ * @author Christoph Stamm
+ *
+ */
+public class Pipeline implements IImageProcessor {
+	private final List<IImageProcessor> m_steps = new ArrayList<>();
+	
+	/**
+	 * Appends an operation
+	 * @param proc image operation
+	 * @return this pipeline
+	 */
+	public Pipeline add(IImageProcessor proc) {
+		assert proc != null : "operation is null";
+		m_steps.add(proc);
+		return this;
+	}
+	
+	public List<IImageProcessor> getSteps() {
+		return m_steps;
+	}
+
+	@Override
+	public boolean isEnabled(int imageType) {
+		return m_steps.isEmpty() || m_steps.get(0).isEnabled(imageType);
+	}
+
+	@Override
+	public boolean isInteractive() {
+		for (IImageProcessor proc : m_steps) {
+			if (proc.isInteractive()) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public ImageData run(ImageData inData, int imageType) {
+		ImageData data = inData;
+		int type = imageType;
+		int i = 0;
+		
+		while (i < m_steps.size()) {
+			// collect consecutive point operations
+			List<IPointProcessor> points = new ArrayList<>();
+			int t = type;
+			
+			while (i < m_steps.size() && m_steps.get(i) instanceof IPointProcessor) {
+				IPointProcessor proc = (IPointProcessor)m_steps.get(i);
+				
+				if (!proc.isEnabled(t)) throw new IllegalArgumentException(notEnabled(proc, t));
+				if (!proc.isPointOperation(t)) break;
+				points.add(proc);
+				t = proc.getOutputType(t);
+				i++;
+			}
+			
+			if (points.isEmpty()) {
+				// materialize
+				IImageProcessor proc = m_steps.get(i++);
+				
+				if (!proc.isEnabled(type)) throw new IllegalArgumentException(notEnabled(proc, type));
+				data = proc.run(data, type);
+				if (data == null) return null;
+				type = Picsi.determineImageType(data);
+			} else {
+				data = run(data, type, points);
+				type = t;
+			}
+		}
+		return (data == inData) ? (ImageData)inData.clone() : data;
+	}
+	
+	/**
+	 * Runs a chain of point operations in one parallel tile pass
+	 * @param inData input image
+	 * @param imageType type of the input image
+	 * @param points point operations
+	 * @return output image
+	 */
+	public static ImageData run(ImageData inData, int imageType, List<IPointProcessor> points) {
+		final IntUnaryOperator[] functions = new IntUnaryOperator[points.size()];
+		final int[] masks = new int[points.size()];
+		PaletteData palette = inData.palette;
+		int type = imageType;
+		int depth = inData.depth;
+		
+		for (int i = 0; i < functions.length; i++) {
+			final IPointProcessor proc = points.get(i);
+			final int outType = proc.getOutputType(type);
+			
+			functions[i] = proc.getPixelFunction(palette, type);
+			if (outType != type) {
+				ImageData d = ImageProcessing.createImage(1, 1, outType);
+				palette = d.palette;
+				depth = d.depth;
+				type = outType;
+			}
+			masks[i] = (depth < 32) ? (1 << depth) - 1 : -1;
+		}
+		
+		final ImageData outData = (type == imageType) 
+				? new ImageData(inData.width, inData.height, depth, palette) 
+				: ImageProcessing.createImage(inData.width, inData.height, type);
+		final PixelAccess inPixels = PixelAccess.create(inData);
+		final PixelAccess outPixels = PixelAccess.create(outData);
+		
+		Parallel.ForTiles(inData.width, inData.height, (u0, v0, u1, v1) -> {
+			final int n = u1 - u0;
+			int[] row = new int[n];
+			
+			for (int v = v0; v < v1; v++) {
+				inPixels.getPixels(u0, v, n, row, 0);
+				for (int u = 0; u < n; u++) {
+					int pixel = row[u];
+					for (int i = 0; i < functions.length; i++) {
+						pixel = functions[i].applyAsInt(pixel) & masks[i];
+					}
+					row[u] = pixel;
+				}
+				outPixels.setPixels(u0, v, n, row, 0);
+			}
+		});
+		return outData;
+	}
+	
+	private static String notEnabled(IImageProcessor proc, int imageType) {
+		return proc.getClass().getSimpleName() + " is not enabled for image type " + Picsi.imageTypeString(imageType);
+	}
+}
@@ -1,19 +1,23 @@
 package imageprocessing.colors;
 
+import java.util.function.IntUnaryOperator;
+
 import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
 import org.eclipse.swt.graphics.RGB;
 
-import imageprocessing.IImageProcessor;
+import imageprocessing.IPointProcessor;
 import imageprocessing.ImageProcessing;
 import main.Picsi;
 import utils.Parallel;
+import utils.PixelAccess;
 
 /**
  * RGB channel visualizer
  * @author Christoph Stamm
  *
  */
-public class ChannelRGB implements IImageProcessor {
+public class ChannelRGB implements IPointProcessor {
 	int m_channel;
 	
 	public ChannelRGB(int channel) {
@@ -26,23 +30,76 @@ public class ChannelRGB implements IImageProcessor {
 		return imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_INDEXED;
 	}
 
+	@Override
+	public int getOutputType(int imageType) {
+		return Picsi.IMAGE_TYPE_GRAY;
+	}
+
+	@Override
+	public IntUnaryOperator getPixelFunction(PaletteData palette, int imageType) {
+		return getChannelFunction(palette, m_channel);
+	}
+
 	@Override
 	public ImageData run(ImageData inData, int imageType) {
 		return getChannel(inData, m_channel);
 	}
 
+	/**
+	 * Returns the function mapping a pixel value to the intensity of the given channel
+	 * @param palette image palette
+	 * @param channel 0 = red, 1 = green, 2 = blue
+	 * @return
+	 */
+	public static IntUnaryOperator getChannelFunction(PaletteData palette, int channel) {
+		final int mask, shift;
+		final int[] lut;
+		
+		if (palette.isDirect) {
+			switch(channel) {
+			case 0: mask = palette.redMask; shift = palette.redShift; break;
+			case 1: mask = palette.greenMask; shift = palette.greenShift; break;
+			default: mask = palette.blueMask; shift = palette.blueShift; break;
+			}
+			lut = null;
+		} else {
+			// channel values of the palette entries
+			RGB[] rgbs = palette.getRGBs();
+			mask = shift = 0;
+			lut = new int[rgbs.length];
+			for (int i=0; i < lut.length; i++) {
+				switch(channel) {
+				case 0: lut[i] = rgbs[i].red; break;
+				case 1: lut[i] = rgbs[i].green; break;
+				case 2: lut[i] = rgbs[i].blue; break;
+				}
+			}
+		}
+		if (lut != null) {
+			return pixel -> lut[pixel];
+		} else {
+			// mask can be negative -> use >>> instead of >>
+			return (shift > 0) ? pixel -> (mask & pixel) << shift : pixel -> (mask & pixel) >>> -shift;
+		}
+	}
+
 	public static ImageData getChannel(ImageData inData, int channel) {
 		ImageData outData = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_GRAY);
+		PixelAccess inPixels = PixelAccess.create(inData);
+		PixelAccess outPixels = PixelAccess.create(outData);
+		final IntUnaryOperator f = getChannelFunction(inData.palette, channel);
 
 		// parallel image loop
-		Parallel.For(0, inData.height, v -> {
-			for (int u=0; u < inData.width; u++) {
-				RGB rgb = inData.palette.getRGB(inData.getPixel(u,v));
-				switch(channel) {
-				case 0: outData.setPixel(u, v, rgb.red); break;
-				case 1: outData.setPixel(u, v, rgb.green); break;
-				case 2: outData.setPixel(u, v, rgb.blue); break;
+		Parallel.ForTiles(inData.width, inData.height, (u0, v0, u1, v1) -> {
+			final int n = u1 - u0;
+			int[] row = new int[n];
+			
+			for (int v=v0; v < v1; v++) {
+				inPixels.getPixels(u0, v, n, row, 0);
+				for (int i=0; i < n; i++) {
+					row[i] = f.applyAsInt(row[i]);
 				}
+				outPixels.setPixels(u0, v, n, row, 0);
 			}
 		});
 		return outData;		
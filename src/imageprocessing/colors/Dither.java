@@ -1,11 +1,11 @@
 package imageprocessing.colors;
 
-import imageprocessing.IImageProcessor;
-import imageprocessing.ImageProcessing;
+import imageprocessing.IFloatImageProcessor;
 import main.Picsi;
 import org.eclipse.swt.graphics.ImageData;
+import utils.FloatImage;
 
-public class Dither implements IImageProcessor {
+public class Dither implements IFloatImageProcessor {
     private final Grayscale grayscale = new Grayscale();
 
     @Override
@@ -13,39 +13,50 @@ public class Dither implements IImageProcessor {
         return true;
     }
 
+    @Override
+    public int getOutputType(int imageType) {
+        return Picsi.IMAGE_TYPE_BINARY;
+    }
+
     @Override
     public ImageData run(ImageData inData, int imageType) {
         inData = grayscale.run(inData, imageType);
-        ImageData image = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_BINARY);
-
-        for (int y = 0; y < inData.height; y++) {
-            for (int x = 0; x < inData.width; x++) {
-                int pixel = inData.getPixel(x, y);
-                int closest = pixel > 127 ? 255 : 0;
-                int error = pixel - closest;
+        return IFloatImageProcessor.super.run(inData, Picsi.IMAGE_TYPE_GRAY);
+    }
 
-                if (x < inData.width - 1) {
-                    inData.setPixel(x + 1, y, clamp(inData.getPixel(x + 1, y) + error * 7 / 16));
+    /**
+     * Floyd-Steinberg dithering of the luminance. The errors are diffused without clamping.
+     * @param inImage gray image: is used as output image with values 0 and 255; or RGB image
+     */
+    @Override
+    public FloatImage run(FloatImage inImage, int imageType) {
+        FloatImage image = (inImage.getChannelCount() == 1) ? inImage.channel(0) : Grayscale.luminance(inImage);
+        float[] p = image.m_planes[0];
+
+        for (int y = 0; y < image.m_height; y++) {
+            for (int x = 0; x < image.m_width; x++) {
+                int i = image.index(x, y);
+                float pixel = p[i];
+                float closest = pixel > 127 ? 255 : 0;
+                float error = pixel - closest;
+
+                if (x < image.m_width - 1) {
+                    p[i + 1] += error * 7 / 16;
                 }
-                if (x > 0 && y < inData.height - 1) {
-                    inData.setPixel(x - 1, y + 1, clamp(inData.getPixel(x - 1, y + 1) + error * 3 / 16));
+                if (x > 0 && y < image.m_height - 1) {
+                    p[i + image.m_stride - 1] += error * 3 / 16;
                 }
-                if (y < inData.height - 1) {
-                    inData.setPixel(x, y + 1, clamp(inData.getPixel(x, y + 1) + error * 5 / 16));
+                if (y < image.m_height - 1) {
+                    p[i + image.m_stride] += error * 5 / 16;
                 }
-                if (x < inData.width - 1 && y < inData.height - 1) {
-                    inData.setPixel(x + 1, y + 1, clamp(inData.getPixel(x + 1, y + 1) + error / 16));
+                if (x < image.m_width - 1 && y < image.m_height - 1) {
+                    p[i + image.m_stride + 1] += error / 16;
                 }
 
-                int binary = closest == 255 ? 0 : 1;
-                image.setPixel(x, y, binary);
+                p[i] = closest;
             }
         }
 
         return image;
     }
-
-    private int clamp(int number) {
-        return Math.max(Math.min(number, 255), 0);
-    }
 }
@@ -1,29 +1,96 @@
 package imageprocessing.colors;
 
-import imageprocessing.IImageProcessor;
+import imageprocessing.IPointProcessor;
 import imageprocessing.ImageProcessing;
 import main.Picsi;
+
+import java.util.function.IntUnaryOperator;
+
 import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+import utils.FloatImage;
+import utils.Parallel;
+import utils.PixelAccess;
+
+public class Grayscale implements IPointProcessor {
+    static final float RedWeight = 0.2f, GreenWeight = 0.7f, BlueWeight = 0.1f;
 
-public class Grayscale implements IImageProcessor {
     @Override
     public boolean isEnabled(int imageType) {
         return true;
     }
 
+    @Override
+    public int getOutputType(int imageType) {
+        return Picsi.IMAGE_TYPE_GRAY;
+    }
+
+    /**
+     * Returns the rounded luminance of the input pixels. The channels are decoded by the palette:
+     * direct palettes by their masks, indexed palettes (gray, binary, indexed) by their colors.
+     */
+    @Override
+    public IntUnaryOperator getPixelFunction(PaletteData palette, int imageType) {
+        if (imageType == Picsi.IMAGE_TYPE_GRAY32) {
+            return ImageProcessing::clamp8;
+        } else if (palette.isDirect) {
+            return pixel -> {
+                int r = channel(pixel, palette.redMask, palette.redShift);
+                int g = channel(pixel, palette.greenMask, palette.greenShift);
+                int b = channel(pixel, palette.blueMask, palette.blueShift);
+                return Math.round(RedWeight * r + GreenWeight * g + BlueWeight * b);
+            };
+        } else {
+            RGB[] rgbs = palette.getRGBs();
+            return pixel -> {
+                RGB rgb = rgbs[pixel];
+                return Math.round(RedWeight * rgb.red + GreenWeight * rgb.green + BlueWeight * rgb.blue);
+            };
+        }
+    }
+
+    private static int channel(int pixel, int mask, int shift) {
+        // mask can be negative -> use >>> instead of >>
+        return (shift > 0) ? (mask & pixel) << shift : (mask & pixel) >>> -shift;
+    }
+
+    /**
+     * Luminance of an RGB float image with the same weights as the pixel function
+     * @param inImage three channel image with red, green, blue in planes 0, 1, 2
+     * @return new one channel image
+     */
+    public static FloatImage luminance(FloatImage inImage) {
+        assert inImage.getChannelCount() == 3 : "wrong number of channels: " + inImage.getChannelCount();
+        FloatImage image = new FloatImage(inImage.m_width, inImage.m_height, 1);
+        float[] r = inImage.m_planes[0], g = inImage.m_planes[1], b = inImage.m_planes[2];
+        float[] p = image.m_planes[0];
+
+        Parallel.For(0, image.m_height, y -> {
+            int i = inImage.index(0, y);
+            int o = image.index(0, y);
+
+            for (int x = 0; x < image.m_width; x++, i++, o++) {
+                p[o] = RedWeight * r[i] + GreenWeight * g[i] + BlueWeight * b[i];
+            }
+        });
+        return image;
+    }
+
     @Override
     public ImageData run(ImageData inData, int imageType) {
         ImageData image = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_GRAY);
-        for (int x = 0; x < inData.width; x++) {
-            for (int y = 0; y < inData.height; y++) {
-                int pixel = inData.getPixel(x, y);
-                int r = pixel & 0xff;
-                int g = (pixel & 0xff00) >> 8;
-                int b = (pixel & 0xff0000) >> 16;
-                int gray = 2 * r / 10 + 7 * g / 10 + b / 10;
-                image.setPixel(x, y, gray);
+        PixelAccess inPixels = PixelAccess.create(inData);
+        PixelAccess outPixels = PixelAccess.create(image);
+        IntUnaryOperator f = getPixelFunction(inData.palette, imageType);
+
+        Parallel.For(0, inData.height, () -> new int[inData.width], (y, row) -> {
+            inPixels.getPixels(0, y, row.length, row, 0);
+            for (int x = 0; x < row.length; x++) {
+                row[x] = f.applyAsInt(row[x]);
             }
-        }
+            outPixels.setPixels(0, y, row.length, row, 0);
+        });
         return image;
     }
 }
@@ -1,25 +1,44 @@
 package imageprocessing.colors;
 
+import java.util.function.IntUnaryOperator;
+
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.PaletteData;
 import org.eclipse.swt.graphics.RGB;
 
-import imageprocessing.IImageProcessor;
+import imageprocessing.IPointProcessor;
 import main.Picsi;
 import utils.Parallel;
+import utils.PixelAccess;
 
 /**
  * Image inverter
  * @author Christoph Stamm
  *
  */
-public class Inverter implements IImageProcessor {
+public class Inverter implements IPointProcessor {
 
 	@Override
 	public boolean isEnabled(int imageType) {
 		return true;
 	}
 
+	@Override
+	public boolean isPointOperation(int imageType) {
+		// indexed images are inverted by changing the palette
+		return imageType != Picsi.IMAGE_TYPE_INDEXED;
+	}
+
+	@Override
+	public int getOutputType(int imageType) {
+		return imageType;
+	}
+
+	@Override
+	public IntUnaryOperator getPixelFunction(PaletteData palette, int imageType) {
+		return pixel -> ~pixel;
+	}
+
 	@Override
 	public ImageData run(ImageData inData, int imageType) {
 		ImageData outData = (ImageData)inData.clone();
@@ -45,15 +64,18 @@ public class Inverter implements IImageProcessor {
 			imageData.palette = new PaletteData(paletteOut);
 		} else {
 			// change pixel colors
-			Parallel.For(0, imageData.height, v -> {
-				for (int u=0; u < imageData.width; u++) {
-					int pixel = imageData.getPixel(u,v);
-					imageData.setPixel(u, v, ~pixel);
-					/*RGB rgb = imageData.palette.getRGB(imageData.getPixel(u,v));
-					rgb.red   = 255 - rgb.red;
-					rgb.green = 255 - rgb.green;
-					rgb.blue  = 255 - rgb.blue;
-					imageData.setPixel(u, v, imageData.palette.getPixel(rgb));*/
+			PixelAccess pixels = PixelAccess.create(imageData);
+			
+			Parallel.ForTiles(imageData.width, imageData.height, (u0, v0, u1, v1) -> {
+				final int n = u1 - u0;
+				int[] row = new int[n];
+				
+				for (int v=v0; v < v1; v++) {
+					pixels.getPixels(u0, v, n, row, 0);
+					for (int i=0; i < n; i++) {
+						row[i] = ~row[i];
+					}
+					pixels.setPixels(u0, v, n, row, 0);
 				}
 			});
 		}
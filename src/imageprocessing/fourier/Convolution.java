@@ -0,0 +1,641 @@
+package imageprocessing.fourier;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+
+import imageprocessing.ImageProcessing;
+import main.Picsi;
+import utils.FloatImage;
+import utils.Parallel;
+import utils.PixelAccess;
+
+/**
+ * 2D convolution and correlation with arbitrary kernels.
+ * Depending on the kernel size the fastest of three methods is chosen:
+ * direct convolution (small kernels), two 1D passes (small separable kernels), or
+ * FFT based overlap-save convolution in blocks (large kernels).
+ * All methods replicate the border pixels, hence they produce the same results up to rounding errors.
+ *
+ * Kernels cache their spectra for each block size, so a kernel applied to several images
+ * is only transformed once.
+ *
+ * Images larger than memory are convolved in streaming mode: rows are read from a source
+ * and written to a sink strip by strip, so only one strip of blocks is kept in memory.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class Convolution {
+	public static final int METHOD_AUTO = 0;
+	public static final int METHOD_DIRECT = 1;
+	public static final int METHOD_SEPARABLE = 2;
+	public static final int METHOD_FFT = 3;
+
+	static final int MinBlockSize = 64;	// minimal side length of overlap-save blocks
+	static final double FFTCost = 2.5;	// relative cost of a real forward and inverse FFT per value and log2(size)
+
+	/**
+	 * Supplier of input rows: rows are requested in increasing order, each row once
+	 */
+	public static interface RowSource {
+		/**
+		 * @param v row index
+		 * @param row output: width values starting at offset
+		 * @param offset
+		 */
+		void read(int v, float[] row, int offset);
+	}
+	
+	/**
+	 * Consumer of output rows: rows are passed in increasing order
+	 */
+	public static interface RowSink {
+		/**
+		 * @param v row index
+		 * @param row width values starting at offset
+		 * @param offset
+		 */
+		void write(int v, float[] row, int offset);
+	}
+
+	/**
+	 * Convolution kernel with origin (m_cx, m_cy)
+	 */
+	public static class Kernel {
+		public final int m_width, m_height;	// kernel size
+		public final int m_cx, m_cy;		// origin
+		final double[] m_values;			// row by row
+		final double[] m_row, m_col;		// factors of separable kernels: value(a, b) = m_row[a]*m_col[b], otherwise null
+		private final ConcurrentHashMap<Long, double[][]> m_spectra = new ConcurrentHashMap<>();
+		private Kernel m_flipped;
+
+		/**
+		 * Creates a kernel with origin in the center
+		 * @param width
+		 * @param height
+		 * @param values row by row
+		 */
+		public Kernel(int width, int height, double[] values) {
+			this(width, height, width/2, height/2, values);
+		}
+
+		/**
+		 * Creates a kernel
+		 * @param width
+		 * @param height
+		 * @param cx x-coordinate of the origin
+		 * @param cy y-coordinate of the origin
+		 * @param values row by row
+		 */
+		public Kernel(int width, int height, int cx, int cy, double[] values) {
+			assert width > 0 && height > 0 && values.length == width*height : "wrong kernel size";
+			assert cx >= 0 && cx < width && cy >= 0 && cy < height : "origin is outside of the kernel";
+			m_width = width;
+			m_height = height;
+			m_cx = cx;
+			m_cy = cy;
+			m_values = values.clone();
+
+			// separable if the kernel is the outer product of its column and row through the largest value
+			int iMax = 0;
+			for (int i = 1; i < values.length; i++) {
+				if (Math.abs(values[i]) > Math.abs(values[iMax])) iMax = i;
+			}
+			final double max = values[iMax];
+			final double eps = 1e-9*Math.abs(max);
+			double[] row = new double[width];
+			double[] col = new double[height];
+			boolean separable = max != 0;
+
+			for (int a = 0; a < width; a++) row[a] = values[(iMax/width)*width + a]/max;
+			for (int b = 0; b < height; b++) col[b] = values[b*width + iMax%width];
+			for (int b = 0; separable && b < height; b++) {
+				for (int a = 0; separable && a < width; a++) {
+					separable = Math.abs(row[a]*col[b] - values[b*width + a]) <= eps;
+				}
+			}
+			m_row = separable ? row : null;
+			m_col = separable ? col : null;
+		}
+
+		/**
+		 * Creates a separable kernel with origin in the center: value(a, b) = row[a]*col[b]
+		 * @param row horizontal factor
+		 * @param col vertical factor
+		 */
+		public static Kernel separable(double[] row, double[] col) {
+			double[] values = new double[row.length*col.length];
+
+			for (int b = 0; b < col.length; b++) {
+				for (int a = 0; a < row.length; a++) values[b*row.length + a] = row[a]*col[b];
+			}
+			return new Kernel(row.length, col.length, values);
+		}
+
+		/**
+		 * Creates a normalized box filter
+		 * @param width
+		 * @param height
+		 */
+		public static Kernel box(int width, int height) {
+			double[] row = new double[width];
+			double[] col = new double[height];
+
+			Arrays.fill(row, 1.0/width);
+			Arrays.fill(col, 1.0/height);
+			return separable(row, col);
+		}
+
+		/**
+		 * Creates a normalized Gaussian filter of size 2*ceil(3*sigma) + 1
+		 * @param sigma standard deviation
+		 */
+		public static Kernel gaussian(double sigma) {
+			final int r = (int)Math.ceil(3*sigma);
+			double[] g = new double[2*r + 1];
+			double sum = 0;
+
+			for (int i = -r; i <= r; i++) {
+				g[i + r] = Math.exp(-0.5*i*i/(sigma*sigma));
+				sum += g[i + r];
+			}
+			for (int i = 0; i < g.length; i++) g[i] /= sum;
+			return separable(g, g);
+		}
+
+		public boolean isSeparable() {
+			return m_row != null;
+		}
+
+		public double getValue(int a, int b) {
+			return m_values[b*m_width + a];
+		}
+
+		/**
+		 * Returns the kernel rotated by 180 degrees: convolution with the flipped kernel is a correlation
+		 */
+		public synchronized Kernel flipped() {
+			if (m_flipped == null) {
+				double[] values = new double[m_values.length];
+
+				for (int i = 0; i < values.length; i++) values[i] = m_values[values.length - 1 - i];
+				m_flipped = new Kernel(m_width, m_height, m_width - 1 - m_cx, m_height - 1 - m_cy, values);
+				m_flipped.m_flipped = this;
+			}
+			return m_flipped;
+		}
+
+		/**
+		 * Returns the cached spectrum of this kernel in a bw x bh block: column by column, bw/2 + 1 columns
+		 * @return real and imaginary parts
+		 */
+		double[][] getSpectrum(int bw, int bh) {
+			return m_spectra.computeIfAbsent(((long)bw << 32) | bh, key -> {
+				final int stride = bw/2 + 1;
+				double[] row = new double[bw];
+				double[] re = new double[stride*bh];
+				double[] im = new double[stride*bh];
+				double[] cr = new double[bh];
+				double[] ci = new double[bh];
+				double[][] spectrum = new double[][] { new double[stride*bh], new double[stride*bh] };
+
+				// rows outside of the kernel are zero
+				for (int b = 0; b < m_height; b++) {
+					System.arraycopy(m_values, b*m_width, row, 0, m_width);
+					FFT1D.rfft(row, 0, re, im, b*stride, bw);
+				}
+				for (int c = 0; c < stride; c++) {
+					for (int v = 0; v < bh; v++) {
+						cr[v] = re[v*stride + c];
+						ci[v] = im[v*stride + c];
+					}
+					FFT1D.fft(cr, ci, 0, bh);
+					System.arraycopy(cr, 0, spectrum[0], c*bh, bh);
+					System.arraycopy(ci, 0, spectrum[1], c*bh, bh);
+				}
+				return spectrum;
+			});
+		}
+	}
+
+	/**
+	 * Convolves an image with a kernel
+	 * @param inData input image
+	 * @param imageType Picsi.IMAGE_TYPE_XXX
+	 * @param kernel
+	 * @return output image: gray for binary and gray images, RGB for RGB and indexed images, gray32 for gray32 images
+	 */
+	public static ImageData convolve(ImageData inData, int imageType, Kernel kernel) {
+		return convolve(FloatImage.fromImageData(inData, imageType), kernel, METHOD_AUTO).toImageData(getOutputType(imageType));
+	}
+
+	/**
+	 * Correlates an image with a kernel (template matching)
+	 * @param inData input image
+	 * @param imageType Picsi.IMAGE_TYPE_XXX
+	 * @param kernel
+	 * @return output image: gray for binary and gray images, RGB for RGB and indexed images, gray32 for gray32 images
+	 */
+	public static ImageData correlate(ImageData inData, int imageType, Kernel kernel) {
+		return convolve(inData, imageType, kernel.flipped());
+	}
+
+	/**
+	 * Correlates each channel with a kernel: out(x, y) = sum_a,b kernel(a, b)*in(x + a - cx, y + b - cy)
+	 * @param in input image
+	 * @param kernel
+	 * @param method METHOD_XXX
+	 * @return new output image
+	 */
+	public static FloatImage correlate(FloatImage in, Kernel kernel, int method) {
+		return convolve(in, kernel.flipped(), method);
+	}
+
+	/**
+	 * Convolves each channel with a kernel: out(x, y) = sum_a,b kernel(a, b)*in(x + cx - a, y + cy - b)
+	 * @param in input image
+	 * @param kernel
+	 * @param method METHOD_XXX
+	 * @return new output image
+	 */
+	public static FloatImage convolve(FloatImage in, Kernel kernel, int method) {
+		FloatImage out = new FloatImage(in.m_width, in.m_height, in.getChannelCount());
+
+		if (method == METHOD_AUTO) method = chooseMethod(in.m_width, in.m_height, kernel);
+		if (method == METHOD_SEPARABLE && !kernel.isSeparable()) throw new IllegalArgumentException("kernel is not separable");
+
+		for (int c = 0; c < in.getChannelCount(); c++) {
+			final FloatImage src = in.channel(c), dst = out.channel(c);
+
+			switch(method) {
+			case METHOD_DIRECT:
+				direct(src, dst, kernel);
+				break;
+			case METHOD_SEPARABLE:
+				separable(src, dst, kernel);
+				break;
+			case METHOD_FFT:
+				overlapSave(src, dst, kernel);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown method: " + method);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Convolves an image with the streaming algorithm: the float data is bounded to one strip of blocks,
+	 * but input and output images are in memory. Images larger than memory need the RowSource/RowSink variant.
+	 * The channels of RGB images are convolved one after the other.
+	 * @param inData input image
+	 * @param imageType Picsi.IMAGE_TYPE_GRAY or Picsi.IMAGE_TYPE_RGB
+	 * @param kernel
+	 * @param tileSize side length of the overlap-save blocks
+	 * @return output image of the same type
+	 */
+	public static ImageData convolveStreaming(ImageData inData, int imageType, Kernel kernel, int tileSize) {
+		final ImageData outData = new ImageData(inData.width, inData.height, inData.depth, inData.palette);
+		final PixelAccess in = PixelAccess.create(inData), out = PixelAccess.create(outData);
+		final int[] pixels = new int[inData.width];
+		
+		switch(imageType) {
+		case Picsi.IMAGE_TYPE_GRAY:
+			convolveStreaming(inData.width, inData.height, 
+				(v, row, offset) -> {
+					in.getPixels(0, v, pixels.length, pixels, 0);
+					for (int u = 0; u < pixels.length; u++) row[offset + u] = pixels[u];
+				}, 
+				(v, row, offset) -> {
+					for (int u = 0; u < pixels.length; u++) pixels[u] = ImageProcessing.clamp8(row[offset + u]);
+					out.setPixels(0, v, pixels.length, pixels, 0);
+				}, 
+				kernel, tileSize);
+			break;
+		case Picsi.IMAGE_TYPE_RGB:
+		{
+			final PaletteData palette = inData.palette;
+			final int[] masks = { palette.redMask, palette.greenMask, palette.blueMask };
+			final int[] shifts = { palette.redShift, palette.greenShift, palette.blueShift };
+			
+			for (int c = 0; c < masks.length; c++) {
+				final int mask = masks[c], shift = shifts[c];
+				
+				// mask can be negative -> use >>> instead of >>
+				convolveStreaming(inData.width, inData.height, 
+					(v, row, offset) -> {
+						in.getPixels(0, v, pixels.length, pixels, 0);
+						for (int u = 0; u < pixels.length; u++) {
+							row[offset + u] = (shift > 0) ? (mask & pixels[u]) << shift : (mask & pixels[u]) >>> -shift;
+						}
+					}, 
+					(v, row, offset) -> {
+						// merge the channel into the output row
+						out.getPixels(0, v, pixels.length, pixels, 0);
+						for (int u = 0; u < pixels.length; u++) {
+							final int value = ImageProcessing.clamp8(row[offset + u]);
+							pixels[u] = (pixels[u] & ~mask) | (((shift > 0) ? value >>> shift : value << -shift) & mask);
+						}
+						out.setPixels(0, v, pixels.length, pixels, 0);
+					}, 
+					kernel, tileSize);
+			}
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("unsupported image type: " + imageType);
+		}
+		return outData;
+	}
+	
+	/**
+	 * Overlap-save convolution of an image larger than memory. The input rows are read sequentially 
+	 * into a window of one block row (tile size rows), the blocks of the window are filtered in parallel, 
+	 * and the valid output rows are written before the next rows are read. 
+	 * Peak memory: about 2*tileSize*width floats plus the block buffers of the worker threads.
+	 * @param width image width
+	 * @param height image height
+	 * @param source input rows
+	 * @param sink output rows
+	 * @param kernel
+	 * @param tileSize side length of the overlap-save blocks: rounded up to a power of 2 larger than the kernel
+	 */
+	public static void convolveStreaming(int width, int height, RowSource source, RowSink sink, Kernel kernel, int tileSize) {
+		final int bw = Math.min(powerOf2(Math.max(tileSize, 2*kernel.m_width)), powerOf2(width + kernel.m_width - 1));
+		final int bh = Math.min(powerOf2(Math.max(tileSize, 2*kernel.m_height)), powerOf2(height + kernel.m_height - 1));
+		final int vw = bw - kernel.m_width + 1, vh = bh - kernel.m_height + 1;	// valid output size of a block
+		final int nx = (width + vw - 1)/vw;
+		final int top = kernel.m_height - 1 - kernel.m_cy;	// rows above the first output row of a strip
+		final double[][] spectrum = kernel.getSpectrum(bw, bh);
+		final FloatImage window = new FloatImage(width, bh, 1);
+		final FloatImage strip = new FloatImage(width, vh, 1);
+		final float[] win = window.m_planes[0];
+		final int[] rows = new int[bh];	// image row of each window row
+		int next = 0;					// next row of the source
+		
+		for (int y0 = 0; y0 < height; y0 += vh) {
+			final int sy = y0;
+			int j = 0;
+			
+			if (y0 > 0) {
+				// keep the overlapping rows of the previous window
+				j = bh - vh;
+				System.arraycopy(win, vh*width, win, 0, j*width);
+				System.arraycopy(rows, vh, rows, 0, j);
+			}
+			for (; j < bh; j++) {
+				final int r = clamp(y0 - top + j, height);
+				
+				if (j > 0 && rows[j - 1] == r) {
+					// replicated border row
+					System.arraycopy(win, (j - 1)*width, win, j*width, width);
+				} else {
+					assert r == next : "rows are not read in order";
+					source.read(r, win, j*width);
+					next++;
+				}
+				rows[j] = r;
+			}
+			
+			// filter the blocks of the window in parallel
+			Parallel.For(0, nx,
+				// local data: block buffers
+				() -> new BlockBuffers(bw, bh),
+				// loop body
+				(i, buf) -> {
+					final int x0 = i*vw;
+	
+					buf.filter(window, x0 - (kernel.m_width - 1 - kernel.m_cx), 0, spectrum);
+					buf.write(strip, x0, 0, kernel.m_width - 1, kernel.m_height - 1, Math.min(vw, width - x0), Math.min(vh, height - sy));
+				}
+			);
+			for (int v = 0; v < Math.min(vh, height - y0); v++) {
+				sink.write(y0 + v, strip.m_planes[0], v*width);
+			}
+		}
+	}
+
+	/**
+	 * Returns the method with the lowest estimated number of operations
+	 * @param width image width
+	 * @param height image height
+	 * @param kernel
+	 * @return METHOD_DIRECT, METHOD_SEPARABLE or METHOD_FFT
+	 */
+	public static int chooseMethod(int width, int height, Kernel kernel) {
+		final int bw = blockSize(width, kernel.m_width);
+		final int bh = blockSize(height, kernel.m_height);
+		final double valid = (double)(bw - kernel.m_width + 1)*(bh - kernel.m_height + 1);
+		final double fftCost = bw*bh*(FFTCost*(log2(bw) + log2(bh)) + 1)/valid;
+		final double directCost = kernel.isSeparable() ? kernel.m_width + kernel.m_height : kernel.m_width*kernel.m_height;
+
+		if (directCost <= fftCost) {
+			return kernel.isSeparable() ? METHOD_SEPARABLE : METHOD_DIRECT;
+		} else {
+			return METHOD_FFT;
+		}
+	}
+
+	private static int getOutputType(int imageType) {
+		switch(imageType) {
+		case Picsi.IMAGE_TYPE_RGB:
+		case Picsi.IMAGE_TYPE_INDEXED:
+			return Picsi.IMAGE_TYPE_RGB;
+		case Picsi.IMAGE_TYPE_GRAY32:
+			return Picsi.IMAGE_TYPE_GRAY32;
+		default:
+			return Picsi.IMAGE_TYPE_GRAY;
+		}
+	}
+
+	/**
+	 * Direct convolution: each output row sums kernel height padded input rows
+	 */
+	private static void direct(FloatImage src, FloatImage dst, Kernel k) {
+		final int w = src.m_width, h = src.m_height;
+		final float[] in = src.m_planes[0], out = dst.m_planes[0];
+
+		Parallel.For(0, h,
+			// local data: padded row and accumulator
+			() -> new double[][] { new double[w + k.m_width - 1], new double[w] },
+			// loop body
+			(y, buf) -> {
+				final double[] pad = buf[0], sum = buf[1];
+
+				Arrays.fill(sum, 0);
+				for (int b = 0; b < k.m_height; b++) {
+					padRow(in, src.index(0, clamp(y + k.m_cy - b, h)), w, k.m_width - 1 - k.m_cx, pad);
+					for (int a = 0; a < k.m_width; a++) {
+						final double kv = k.m_values[b*k.m_width + a];
+						final int off = k.m_width - 1 - a;
+
+						if (kv != 0) for (int x = 0; x < w; x++) sum[x] += kv*pad[x + off];
+					}
+				}
+				final int pos = dst.index(0, y);
+				for (int x = 0; x < w; x++) out[pos + x] = (float)sum[x];
+			}
+		);
+	}
+
+	/**
+	 * Separable convolution: horizontal pass into a temporary image followed by a vertical pass
+	 */
+	private static void separable(FloatImage src, FloatImage dst, Kernel k) {
+		final int w = src.m_width, h = src.m_height;
+		final float[] in = src.m_planes[0], out = dst.m_planes[0];
+		final double[] row = k.m_row, col = k.m_col;
+		final float[] tmp = new float[w*h];
+
+		Parallel.For(0, h,
+			// local data: padded row
+			() -> new double[w + k.m_width - 1],
+			// loop body
+			(y, pad) -> {
+				padRow(in, src.index(0, y), w, k.m_width - 1 - k.m_cx, pad);
+				for (int x = 0; x < w; x++) {
+					double sum = 0;
+					for (int a = 0; a < row.length; a++) sum += row[a]*pad[x + row.length - 1 - a];
+					tmp[y*w + x] = (float)sum;
+				}
+			}
+		);
+		Parallel.For(0, h,
+			// local data: accumulator
+			() -> new double[w],
+			// loop body
+			(y, sum) -> {
+				Arrays.fill(sum, 0);
+				for (int b = 0; b < col.length; b++) {
+					final double kv = col[b];
+					final int pos = clamp(y + k.m_cy - b, h)*w;
+
+					for (int x = 0; x < w; x++) sum[x] += kv*tmp[pos + x];
+				}
+				final int pos = dst.index(0, y);
+				for (int x = 0; x < w; x++) out[pos + x] = (float)sum[x];
+			}
+		);
+	}
+
+	/**
+	 * Overlap-save convolution: the output is computed in blocks of (bw - kw + 1) x (bh - kh + 1) pixels.
+	 * Each block reads a bw x bh input window, which is transformed, multiplied with the kernel spectrum,
+	 * and transformed back. The blocks are processed in parallel.
+	 */
+	private static void overlapSave(FloatImage src, FloatImage dst, Kernel k) {
+		final int w = src.m_width, h = src.m_height;
+		final int bw = blockSize(w, k.m_width), bh = blockSize(h, k.m_height);
+		final int vw = bw - k.m_width + 1, vh = bh - k.m_height + 1;	// valid output size of a block
+		final int nx = (w + vw - 1)/vw, ny = (h + vh - 1)/vh;
+		final double[][] spectrum = k.getSpectrum(bw, bh);
+
+		Parallel.For(0, nx*ny,
+			// local data: block buffers
+			() -> new BlockBuffers(bw, bh),
+			// loop body
+			(i, buf) -> {
+				final int x0 = (i%nx)*vw, y0 = (i/nx)*vh;
+
+				buf.filter(src, x0 - (k.m_width - 1 - k.m_cx), y0 - (k.m_height - 1 - k.m_cy), spectrum);
+				buf.write(dst, x0, y0, k.m_width - 1, k.m_height - 1, Math.min(vw, w - x0), Math.min(vh, h - y0));
+			}
+		);
+	}
+
+	/**
+	 * Work buffers of a bw x bh block: hermitian half spectrum stored row by row with bw/2 + 1 columns
+	 */
+	private static class BlockBuffers {
+		final int m_bw, m_bh, m_stride;
+		final double[] m_re, m_im, m_row, m_colRe, m_colIm;
+
+		BlockBuffers(int bw, int bh) {
+			m_bw = bw;
+			m_bh = bh;
+			m_stride = bw/2 + 1;
+			m_re = new double[m_stride*bh];
+			m_im = new double[m_stride*bh];
+			m_row = new double[bw];
+			m_colRe = new double[bh];
+			m_colIm = new double[bh];
+		}
+
+		/**
+		 * Transforms the input window at (ox, oy) (replicated borders) and multiplies it with the kernel spectrum.
+		 * Columns are transformed, filtered and transformed back in one pass.
+		 */
+		void filter(FloatImage src, int ox, int oy, double[][] spectrum) {
+			final float[] in = src.m_planes[0];
+			final double[] kr = spectrum[0], ki = spectrum[1];
+
+			for (int v = 0; v < m_bh; v++) {
+				final int pos = src.index(0, clamp(oy + v, src.m_height));
+
+				for (int u = 0; u < m_bw; u++) m_row[u] = in[pos + clamp(ox + u, src.m_width)];
+				FFT1D.rfft(m_row, 0, m_re, m_im, v*m_stride, m_bw);
+			}
+			for (int c = 0; c < m_stride; c++) {
+				for (int v = 0; v < m_bh; v++) {
+					m_colRe[v] = m_re[v*m_stride + c];
+					m_colIm[v] = m_im[v*m_stride + c];
+				}
+				FFT1D.fft(m_colRe, m_colIm, 0, m_bh);
+				for (int v = 0, j = c*m_bh; v < m_bh; v++, j++) {
+					final double re = m_colRe[v], im = m_colIm[v];
+					m_colRe[v] = re*kr[j] - im*ki[j];
+					m_colIm[v] = re*ki[j] + im*kr[j];
+				}
+				FFT1D.ifft(m_colRe, m_colIm, 0, m_bh);
+				for (int v = 0; v < m_bh; v++) {
+					m_re[v*m_stride + c] = m_colRe[v];
+					m_im[v*m_stride + c] = m_colIm[v];
+				}
+			}
+		}
+
+		/**
+		 * Inverse transforms the valid rows and writes the valid part [sx, sx + n) x [sy, sy + m) to (x0, y0)
+		 */
+		void write(FloatImage dst, int x0, int y0, int sx, int sy, int n, int m) {
+			final float[] out = dst.m_planes[0];
+
+			for (int v = 0; v < m; v++) {
+				final int pos = dst.index(x0, y0 + v);
+
+				FFT1D.irfft(m_re, m_im, (sy + v)*m_stride, m_row, 0, m_bw);
+				for (int u = 0; u < n; u++) out[pos + u] = (float)m_row[sx + u];
+			}
+		}
+	}
+
+	/**
+	 * Copies a row to pad[0, w + padding), where pad[i] = row[clamp(i - left)]
+	 */
+	private static void padRow(float[] in, int pos, int w, int left, double[] pad) {
+		for (int i = 0; i < pad.length; i++) pad[i] = in[pos + clamp(i - left, w)];
+	}
+
+	private static int clamp(int i, int n) {
+		return (i < 0) ? 0 : (i >= n) ? n - 1 : i;
+	}
+
+	/**
+	 * Returns the power of 2 block side length: at least four times the kernel, but not larger than needed for the whole image
+	 */
+	private static int blockSize(int imageSize, int kernelSize) {
+		final int b = powerOf2(Math.max(MinBlockSize, 4*kernelSize));
+		return Math.min(b, powerOf2(imageSize + kernelSize - 1));
+	}
+
+	private static int powerOf2(int n) {
+		return (n <= 1) ? 1 : Integer.highestOneBit(n - 1) << 1;
+	}
+
+	private static int log2(int n) {
+		return 31 - Integer.numberOfLeadingZeros(n);
+	}
+}
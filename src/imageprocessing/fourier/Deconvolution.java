@@ -0,0 +1,267 @@
+package imageprocessing.fourier;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import imageprocessing.ImageProcessing;
+import main.Picsi;
+import utils.FrequencyDomain;
+import utils.Parallel;
+import utils.PixelAccess;
+import utils.SpectralExpression;
+
+/**
+ * Deconvolution of gray images blurred by a known point spread function (PSF):
+ * Wiener and Tikhonov regularized inverse filtering, and the iterative Richardson-Lucy algorithm.
+ *
+ * The blur is modeled as circular convolution in the spectrum size of FFT.fft2D (image padded to powers of 2).
+ * The transfer functions of the PSF are cached per spectrum size, so a Deconvolution object applied to
+ * a batch of images transforms its PSF only once.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class Deconvolution {
+	static final double Epsilon = 1e-6;	// smallest divisor in Richardson-Lucy iterations
+
+	private final Convolution.Kernel m_psf;
+	private final ConcurrentHashMap<Long, FrequencyDomain> m_transferFunctions = new ConcurrentHashMap<>();
+
+	/**
+	 * @param psf point spread function: normalized kernel, e.g. Convolution.Kernel.box or Convolution.Kernel.gaussian
+	 */
+	public Deconvolution(Convolution.Kernel psf) {
+		m_psf = psf;
+	}
+
+	/**
+	 * Returns the cached transfer function of the PSF: the origin of the PSF is at coefficient (0,0)
+	 * @param w spectrum width
+	 * @param h spectrum height
+	 * @return hermitian spectrum of size w x h
+	 */
+	public FrequencyDomain getTransferFunction(int w, int h) {
+		assert w >= m_psf.m_width && h >= m_psf.m_height : "spectrum is smaller than the PSF";
+		return m_transferFunctions.computeIfAbsent(((long)w << 32) | h, key -> {
+			final int stride = w/2 + 1;
+			double[] data = new double[w*h];
+			double[] re = new double[stride*h];
+			double[] im = new double[stride*h];
+
+			// wrap around: kernel value (a, b) is at ((a - cx) mod w, (b - cy) mod h)
+			for (int b = 0; b < m_psf.m_height; b++) {
+				final int y = (b - m_psf.m_cy + h)%h;
+				for (int a = 0; a < m_psf.m_width; a++) {
+					data[y*w + (a - m_psf.m_cx + w)%w] = m_psf.getValue(a, b);
+				}
+			}
+			FFT.fft2D(data, w, h, re, im);
+			return new FrequencyDomain(ImageProcessing.createImage(1, 1, Picsi.IMAGE_TYPE_GRAY), w, h, w, h, true, re, im);
+		});
+	}
+
+	/**
+	 * Wiener deconvolution
+	 * @param inData blurred gray image
+	 * @param k noise to signal power ratio
+	 * @return output image
+	 */
+	public ImageData wiener(ImageData inData, double k) {
+		final FrequencyDomain fd = FFT.fft2D(inData);
+		return FFT.ifft2D(wiener(SpectralExpression.of(fd), getTransferFunction(fd.getSpectrumWidth(), fd.getSpectrumHeight()), k));
+	}
+
+	/**
+	 * Tikhonov regularized deconvolution with a Laplacian smoothness term
+	 * @param inData blurred gray image
+	 * @param lambda regularization weight
+	 * @return output image
+	 */
+	public ImageData tikhonov(ImageData inData, double lambda) {
+		final FrequencyDomain fd = FFT.fft2D(inData);
+		return FFT.ifft2D(tikhonov(SpectralExpression.of(fd), getTransferFunction(fd.getSpectrumWidth(), fd.getSpectrumHeight()), lambda));
+	}
+
+	/**
+	 * Richardson-Lucy deconvolution
+	 * @param inData blurred gray image
+	 * @param iterations number of iterations
+	 * @return output image
+	 */
+	public ImageData richardsonLucy(ImageData inData, int iterations) {
+		return richardsonLucy(inData, getTransferFunction(FFT.powerOf2(inData.width), FFT.powerOf2(inData.height)), iterations);
+	}
+
+	/**
+	 * Wiener deconvolution: G*conj(H)/(|H|^2 + k)
+	 * @param g spectrum of the blurred image
+	 * @param tf transfer function H: same size and storage as g
+	 * @param k noise to signal power ratio
+	 * @return lazily evaluated spectrum of the deconvolved image
+	 */
+	public static SpectralExpression wiener(SpectralExpression g, FrequencyDomain tf, double k) {
+		return g.div(tf, (u, v) -> k);
+	}
+
+	/**
+	 * Tikhonov regularized deconvolution: G*conj(H)/(|H|^2 + lambda*|L|^2),
+	 * where L is the transfer function of the discrete Laplacian
+	 * @param g spectrum of the blurred image
+	 * @param tf transfer function H: same size and storage as g
+	 * @param lambda regularization weight
+	 * @return lazily evaluated spectrum of the deconvolved image
+	 */
+	public static SpectralExpression tikhonov(SpectralExpression g, FrequencyDomain tf, double lambda) {
+		final int w = tf.getSpectrumWidth(), h = tf.getSpectrumHeight();
+		final double[] lu = new double[tf.getStride()];
+		final double[] lv = new double[h];
+
+		// L(u,v) = 4 - 2*cos(2*pi*u/w) - 2*cos(2*pi*v/h)
+		for (int u = 0; u < lu.length; u++) lu[u] = 2 - 2*Math.cos(2*Math.PI*u/w);
+		for (int v = 0; v < h; v++) lv[v] = 2 - 2*Math.cos(2*Math.PI*v/h);
+		return g.div(tf, (u, v) -> {
+			final double l = lu[u] + lv[v];
+			return lambda*l*l;
+		});
+	}
+
+	/**
+	 * Richardson-Lucy deconvolution: x = x*corr(y/conv(x, psf), psf).
+	 * Convolutions are computed by FFTs in buffers allocated once for all iterations.
+	 * Pixels of the padding are unknown: their ratios are zero and the correlation is normalized
+	 * by the correlation of the image mask, so the image borders aren't darkened.
+	 * @param inData blurred gray image
+	 * @param tf hermitian transfer function of the PSF: spectrum size of FFT.fft2D(inData)
+	 * @param iterations number of iterations
+	 * @return output image
+	 */
+	public static ImageData richardsonLucy(ImageData inData, FrequencyDomain tf, int iterations) {
+		final int width = inData.width, height = inData.height;
+		final int w = tf.getSpectrumWidth(), h = tf.getSpectrumHeight();
+		assert tf.isHermitian() && w >= width && h >= height : "wrong transfer function";
+		final int stride = tf.getStride();
+		final boolean padded = w > width || h > height;
+		final double[] y = new double[w*h];		// observed image
+		final double[] x = new double[w*h];		// estimate
+		final double[] t = new double[w*h];		// convolutions and ratios
+		final double[] re = new double[stride*h];
+		final double[] im = new double[stride*h];
+		final double[] sum = new double[1];
+		final PixelAccess pixels = PixelAccess.create(inData);
+
+		// read observed image
+		Parallel.For(0, height,
+			// creator
+			() -> new RowSum(width),
+			// loop body
+			(v, s) -> {
+				final int[] row = s.m_row;
+				final int pos = v*w;
+
+				pixels.getPixels(0, v, width, row, 0);
+				for (int u = 0; u < width; u++) {
+					y[pos + u] = row[u];
+					s.m_sum += row[u];
+				}
+			},
+			// reducer
+			s -> {
+				sum[0] += s.m_sum;
+			}
+		);
+
+		// initial estimate: observed image, mean intensity in the padding
+		final double mean = sum[0]/width/height;
+		Parallel.For(0, h, v -> {
+			final int pos = v*w;
+			for (int u = 0; u < w; u++) {
+				x[pos + u] = (u < width && v < height) ? y[pos + u] : mean;
+			}
+		});
+
+		// normalization: correlation of the image mask
+		double[] norm = null;
+		if (padded) {
+			norm = new double[w*h];
+			for (int v = 0; v < height; v++) {
+				for (int u = 0; u < width; u++) norm[v*w + u] = 1;
+			}
+			filter(norm, re, im, tf, true, norm);
+		}
+
+		final double[] n = norm;
+		for (int i = 0; i < iterations; i++) {
+			// ratios of observed and blurred estimate
+			filter(x, re, im, tf, false, t);
+			Parallel.For(0, h, v -> {
+				final int pos = v*w;
+				for (int u = 0; u < w; u++) {
+					t[pos + u] = (u < width && v < height) ? y[pos + u]/Math.max(t[pos + u], Epsilon) : 0;
+				}
+			});
+
+			// correct estimate by correlated ratios
+			filter(t, re, im, tf, true, t);
+			Parallel.For(0, h, v -> {
+				final int end = (v + 1)*w;
+				for (int j = v*w; j < end; j++) {
+					final double c = (n == null) ? t[j] : (n[j] > Epsilon) ? t[j]/n[j] : 1;
+					x[j] = Math.max(0, x[j]*c);
+				}
+			});
+		}
+
+		// write output image
+		final ImageData outData = new ImageData(width, height, inData.depth, inData.palette);
+		final PixelAccess out = PixelAccess.create(outData);
+
+		Parallel.For(0, height, () -> new int[width], (v, row) -> {
+			final int pos = v*w;
+
+			for (int u = 0; u < width; u++) row[u] = ImageProcessing.clamp8(x[pos + u]);
+			out.setPixels(0, v, width, row, 0);
+		});
+		return outData;
+	}
+
+	/**
+	 * Chunk data of the reading loop: row buffer and sum of the pixels
+	 */
+	private static class RowSum {
+		final int[] m_row;
+		double m_sum;
+
+		RowSum(int width) {
+			m_row = new int[width];
+		}
+	}
+
+	/**
+	 * Convolution (correlation) of real data with the PSF of the transfer function tf: out may be in
+	 * @param in real data of the spectrum size
+	 * @param re real parts of the work buffer
+	 * @param im imaginary parts of the work buffer
+	 * @param tf transfer function
+	 * @param correlate true: multiply by conj(tf), false: multiply by tf
+	 * @param out real output of the spectrum size
+	 */
+	private static void filter(double[] in, double[] re, double[] im, FrequencyDomain tf, boolean correlate, double[] out) {
+		final int w = tf.getSpectrumWidth(), h = tf.getSpectrumHeight(), stride = tf.getStride();
+		final double[] hRe = tf.m_re;
+		final double[] hIm = tf.m_im;
+		final double sign = correlate ? -1 : 1;
+
+		FFT.fft2D(in, w, h, re, im);
+		Parallel.For(0, h, v -> {
+			final int end = (v + 1)*stride;
+			for (int i = v*stride; i < end; i++) {
+				final double bIm = sign*hIm[i];
+				final double r = re[i]*hRe[i] - im[i]*bIm;
+				im[i] = re[i]*bIm + im[i]*hRe[i];
+				re[i] = r;
+			}
+		});
+		FFT.ifft2D(re, im, w, h, out);
+	}
+}
@@ -1,8 +1,10 @@
 package imageprocessing.fourier;
 
-import main.Picsi;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedList;
 
-import java.util.Arrays;
+import main.Picsi;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
@@ -11,8 +13,12 @@ import gui.OptionPane;
 import imageprocessing.IImageProcessor;
 import imageprocessing.ImageProcessing;
 import utils.Complex;
+import utils.FastMath;
 import utils.FrequencyDomain;
 import utils.Parallel;
+import utils.ShiftedSpectrum;
+import utils.FrequencyFilter;
+import utils.SpectralExpression;
 
 /**
  * 2D Discrete Fourier Transform (FFT, FHT)
@@ -22,6 +28,14 @@ import utils.Parallel;
  */
 public class FFT implements IImageProcessor {
 	final static double FilterFactor = 3.8; // 3.8 is a good value
+	final static double WienerK = 1e-5;		// noise to signal power ratio of the inverse filtering experiment
+	final static double TikhonovLambda = 1e-3;	// regularization weight of the inverse filtering experiment
+	final static int RichardsonLucyIterations = 30;
+	final static double RichardsonLucyBoxScale = 0.5;	// box size of the Richardson-Lucy experiment relative to the box of the other options
+	final static int SpectrumCacheCapacity = 4;	// number of cached power and phase spectrum images
+	final static int ColumnBlock = 8;		// number of columns transformed together in the column pass
+	
+	private static final LinkedList<SpectrumImage> s_spectrumImages = new LinkedList<>(); // most recently used first
 	
 	@Override
 	public boolean isEnabled(int imageType) {
@@ -44,7 +58,8 @@ public class FFT implements IImageProcessor {
 			f2 = OptionPane.showOptionDialog("Fourier Transform Output", 
 					SWT.ICON_INFORMATION, output, 0);
 		} else {
-			output = new Object[]{ "Blurred Image", "Deconvoluted Image", "Deconvoluted Integer Image", "Deconvoluted Integer Image with Lowpass" };
+			output = new Object[]{ "Blurred Image", "Deconvoluted Image", "Deconvoluted Integer Image", "Deconvoluted Integer Image with Lowpass", 
+					"Wiener Deconvolution", "Tikhonov Deconvolution", "Richardson-Lucy Deconvolution" };
 			f2 = OptionPane.showOptionDialog("Inverse Filtering Output", 
 					SWT.ICON_INFORMATION, output, 0);
 		}
@@ -58,10 +73,10 @@ public class FFT implements IImageProcessor {
 			fd = fft2D(inData);
 			switch(f2) {
 			case 0:
-				outData = getPowerSpectrum(fd.swapQuadrants());
+				outData = getPowerSpectrum(fd, true);
 				break;
 			case 1:
-				outData = getPhaseSpectrum(fd.swapQuadrants());
+				outData = getPhaseSpectrum(fd, true, false);
 				break;
 			case 2:
 				outData = ifft2D(fd);
@@ -72,10 +87,10 @@ public class FFT implements IImageProcessor {
 			fd = fht2D(inData);
 			switch(f2) {
 			case 0:
-				outData = getPowerSpectrum(fd.swapQuadrants());
+				outData = getPowerSpectrum(fd, true);
 				break;
 			case 1:
-				outData = getPhaseSpectrum(fd.swapQuadrants());
+				outData = getPhaseSpectrum(fd, true, false);
 				break;
 			case 2:
 				outData = ifht2D(fd);
@@ -127,6 +142,22 @@ public class FFT implements IImageProcessor {
 		return fft2D(inData, width, height, 1);
 	}
 	
+	/**
+	 * 2D Fast Fourier Transform (forward transform)
+	 * @param inData input data
+	 * @param norm
+	 * @param nativeSize true: the spectrum has the size of the input image (mixed radix or Bluestein transforms), 
+	 * false: the spectrum size is rounded up to the next power of 2 and the image is zero padded
+	 * @return frequency domain object
+	 */
+	public static FrequencyDomain fft2D(ImageData inData, double norm, boolean nativeSize) {
+		if (nativeSize) {
+			return forwardTransform(inData, inData.width, inData.height, inData.width, inData.height, norm);
+		} else {
+			return fft2D(inData, norm);
+		}
+	}
+	
 	/**
 	 * 2D Fast Fourier Transform (forward transform)
 	 * @param inData input data
@@ -136,56 +167,45 @@ public class FFT implements IImageProcessor {
 	 * @return frequency domain object
 	 */
 	public static FrequencyDomain fft2D(ImageData inData, int width, int height, double norm) {
-		int l = width - 1;
-		int w = 1;
-		while(l > 0) {
-			l >>= 1;
-			w <<= 1;
-		}
-		l = height - 1;
-		int h = 1;
-		while(l > 0) {
-			l >>= 1;
-			h <<= 1;
-		}
-		
-		Complex[] row = new Complex[w];
-		Complex[] col = new Complex[h];
-		Complex[][] G = new Complex[h][];
-		
-		// create arrays
-		for (int i=0; i < row.length; i++) {
-			row[i] = new Complex();
-		}
+		return forwardTransform(inData, width, height, powerOf2(width), powerOf2(height), norm);
+	}
+	
+	/**
+	 * Forward transform of inData into a hermitian spectrum of size w x h
+	 * @param inData input data
+	 * @param width output width
+	 * @param height output height
+	 * @param w spectrum width
+	 * @param h spectrum height
+	 * @param norm
+	 * @return frequency domain object
+	 */
+	private static FrequencyDomain forwardTransform(ImageData inData, int width, int height, int w, int h, double norm) {
+		final int stride = w/2 + 1;
+		final double[] re = new double[stride*h];
+		final double[] im = new double[stride*h];
 		
-		// forward transform rows
-		int rowPos = 0;
-		for (int v=0; v < h; v++) {
-			if (v < inData.height) {
-				final int rP = rowPos;
-				Parallel.For(0, Math.min(w, inData.width), u -> {
-					row[u].m_re = (0xFF & inData.data[rP + u])/norm;
-				});
-				G[v] = FFT1D.fft(row);
-				rowPos += inData.bytesPerLine;
-			} else {
-				G[v] = new Complex[w];
-				Arrays.fill(G[v], new Complex());
+		// forward transform rows in parallel (rows outside of the image are zero):
+		// the spectrum of a real row is conjugate symmetric, hence only w/2 + 1 coefficients are computed
+		final int cols = Math.min(w, inData.width);
+		Parallel.For(0, Math.min(h, inData.height), 
+			// local data
+			() -> new double[w],
+			// loop body
+			(v, row) -> {
+				final int rowPos = v*inData.bytesPerLine;
+				
+				for (int u=0; u < cols; u++) {
+					row[u] = (0xFF & inData.data[rowPos + u])/norm;
+				}
+				FFT1D.rfft(row, 0, re, im, v*stride, w);
 			}
-		}
+		);
 		
 		// forward transform columns
-		for (int u=0; u < w; u++) {
-			final int u_ = u;
-			Parallel.For(0, h, v -> {
-				col[v] = G[v][u_];
-			});
-			Complex[] Gcol = FFT1D.fft(col);
-			Parallel.For(0, h, v -> {
-				G[v][u_] = Gcol[v];
-			});
-		}
-		return new FrequencyDomain(inData, width, height, G);
+		transformColumns(re, im, stride, h, stride, false);
+		
+		return new FrequencyDomain(inData, width, height, w, h, true, re, im);
 	}
 	
 	/**
@@ -193,27 +213,28 @@ public class FFT implements IImageProcessor {
 	 * @param fd frequency domain object
 	 * @return output image
 	 */
-	public static ImageData ifft2D(FrequencyDomain fdOrig) {
-		FrequencyDomain fd = fdOrig.clone();
-		ImageData outData = new ImageData(fd.m_width, fd.m_height, fd.m_depth, fd.m_palette);
-		Complex[] col = new Complex[fd.getSpectrumHeight()];
-	
-		// inverse transform rows
-		for (int v=0; v < fd.getSpectrumHeight(); v++) {
-			fd.m_g[v] = FFT1D.ifft(fd.m_g[v]);
-		}
+	public static ImageData ifft2D(FrequencyDomain fd) {
+		return ifft2D(SpectralExpression.of(fd));
+	}
+
+	/**
+	 * 2D Inverse Fast Fourier Transform of a spectral expression. 
+	 * The expression is evaluated directly into the buffers of the inverse transform.
+	 * @param e spectral expression
+	 * @return output image
+	 */
+	public static ImageData ifft2D(SpectralExpression e) {
+		final FrequencyDomain fd = e.getLayout();
+		final ImageData outData = new ImageData(fd.m_width, fd.m_height, fd.m_depth, fd.m_palette);
+		final int w = Math.min(outData.width, fd.getSpectrumWidth());
 		
-		// inverse transform columns
-		for (int u=0; u < Math.min(outData.width, fd.getSpectrumWidth()); u++) {
-			final int u_ = u;
-			Parallel.For(0, fd.getSpectrumHeight(), v -> {
-				col[v] = fd.m_g[v][u_];
-			});
-			Complex[] Gcol = FFT1D.ifft(col);
-			Parallel.For(0, Math.min(outData.height, fd.getSpectrumHeight()), v -> {
-				outData.data[u_ + v*outData.bytesPerLine] = (byte)ImageProcessing.clamp8(Gcol[v].m_re);
-			});
-		}
+		inverseTransform(e, outData.height, (v, row, offset) -> {
+			final int pos = v*outData.bytesPerLine;
+			
+			for (int u=0; u < w; u++) {
+				outData.data[pos + u] = (byte)ImageProcessing.clamp8(row[offset + u]);
+			}
+		});
 		return outData;
 	}
 
@@ -222,29 +243,214 @@ public class FFT implements IImageProcessor {
 	 * @param fd frequency domain object
 	 * @return output real part
 	 */
-	public static double[][] ifft2Dreal(FrequencyDomain fdOrig) {
-		FrequencyDomain fd = fdOrig.clone();
-		double[][] outData = new double[fd.m_height][fd.m_width];
-		Complex[] col = new Complex[fd.getSpectrumHeight()];
+	public static double[][] ifft2Dreal(FrequencyDomain fd) {
+		return ifft2Dreal(SpectralExpression.of(fd));
+	}
+	
+	/**
+	 * 2D Inverse Fast Fourier Transform of a spectral expression
+	 * @param e spectral expression
+	 * @return output real part
+	 */
+	public static double[][] ifft2Dreal(SpectralExpression e) {
+		final FrequencyDomain fd = e.getLayout();
+		final double[][] outData = new double[fd.m_height][fd.m_width];
+		final int w = Math.min(fd.m_width, fd.getSpectrumWidth());
+		
+		inverseTransform(e, fd.m_height, (v, row, offset) -> {
+			System.arraycopy(row, offset, outData[v], 0, w);
+		});
+		return outData;
+	}
 	
-		// inverse transform rows
-		for (int v=0; v < fd.getSpectrumHeight(); v++) {
-			fd.m_g[v] = FFT1D.ifft(fd.m_g[v]);
+	/**
+	 * Adds the inverse transform of a single coefficient c at (u,v) to real spatial data:
+	 * data[y][x] += Re(c*exp(i*2*pi*(u*x/w + v*y/h)))/(w*h).
+	 * After changing one coefficient by c, the inverse transform is updated in O(N) instead of O(N log N).
+	 * In a conjugate symmetric spectrum the change of the conjugate coefficient has to be added as well.
+	 * @param data real spatial data: data[y][x]
+	 * @param w spectrum width
+	 * @param h spectrum height
+	 * @param u x-frequency
+	 * @param v y-frequency
+	 * @param c coefficient
+	 */
+	public static void addCoefficient(double[][] data, int w, int h, int u, int v, Complex c) {
+		final int width = data[0].length;
+		final int height = data.length;
+		final double re = c.m_re/w/h, im = c.m_im/w/h;
+		final double[] cu = new double[width], su = new double[width];
+		final double[] cv = new double[height], sv = new double[height];
+		
+		for (int x=0; x < width; x++) {
+			final double a = 2*Math.PI*((long)u*x % w)/w;
+			cu[x] = Math.cos(a);
+			su[x] = Math.sin(a);
+		}
+		for (int y=0; y < height; y++) {
+			final double a = 2*Math.PI*((long)v*y % h)/h;
+			cv[y] = Math.cos(a);
+			sv[y] = Math.sin(a);
 		}
+		Parallel.For(0, height, y -> {
+			// c*exp(i*2*pi*v*y/h)
+			final double ar = re*cv[y] - im*sv[y], ai = re*sv[y] + im*cv[y];
+			final double[] row = data[y];
+			
+			for (int x=0; x < width; x++) {
+				row[x] += ar*cu[x] - ai*su[x];
+			}
+		});
+	}
+	
+	/**
+	 * Consumer of output rows of the inverse transform
+	 */
+	private static interface RowSink {
+		/**
+		 * @param v row index
+		 * @param row real parts of row v
+		 * @param offset index of the first value of row v
+		 */
+		void accept(int v, double[] row, int offset);
+	}
+	
+	/**
+	 * Inverse transform of a spectral expression: the real parts of the first nRows output rows are passed to sink (in parallel)
+	 * @param e spectral expression: evaluated into the work buffers
+	 * @param nRows number of needed output rows
+	 * @param sink consumer of the output rows
+	 */
+	private static void inverseTransform(SpectralExpression e, int nRows, RowSink sink) {
+		final FrequencyDomain fd = e.getLayout();
+		final int w = fd.getSpectrumWidth();
+		final int h = fd.getSpectrumHeight();
+		final int stride = fd.getStride();
+		final double[] re = new double[fd.m_re.length];
+		final double[] im = new double[fd.m_im.length];
+		
+		e.evaluate(re, im);
 		
-		// inverse transform columns
-		for (int u=0; u < Math.min(fd.m_width, fd.getSpectrumWidth()); u++) {
-			final int u_ = u;
-			Parallel.For(0, fd.getSpectrumHeight(), v -> {
-				col[v] = fd.m_g[v][u_];
+		nRows = Math.min(nRows, h);
+		if (fd.isHermitian()) {
+			// inverse transform columns, then complex-to-real transforms of the needed rows
+			transformColumns(re, im, stride, h, stride, true);
+			Parallel.For(0, nRows, 
+				// local data
+				() -> new double[w],
+				// loop body
+				(v, row) -> {
+					FFT1D.irfft(re, im, v*stride, row, 0, w);
+					sink.accept(v, row, 0);
+				}
+			);
+		} else {
+			// inverse transform rows in parallel
+			Parallel.For(0, h, v -> {
+				FFT1D.ifft(re, im, v*w, w);
 			});
-			Complex[] Gcol = FFT1D.ifft(col);
-			Parallel.For(0, Math.min(fd.m_height, fd.getSpectrumHeight()), v -> {
-				outData[v][u_] = Gcol[v].m_re;
+			
+			// inverse transform columns
+			transformColumns(re, im, w, h, w, true);
+			Parallel.For(0, nRows, v -> {
+				sink.accept(v, re, v*w);
 			});
 		}
-		return outData;
+	}
+	
+	/**
+	 * Forward transform of real data into a hermitian spectrum of the same size
+	 * @param data real input of size w x h in row-major order
+	 * @param w spectrum width
+	 * @param h spectrum height
+	 * @param re real parts of the output: (w/2 + 1)*h values
+	 * @param im imaginary parts of the output: (w/2 + 1)*h values
+	 */
+	static void fft2D(double[] data, int w, int h, double[] re, double[] im) {
+		final int stride = w/2 + 1;
+		
+		Parallel.For(0, h, v -> {
+			FFT1D.rfft(data, v*w, re, im, v*stride, w);
+		});
+		transformColumns(re, im, stride, h, stride, false);
+	}
+	
+	/**
+	 * Inverse transform of a hermitian spectrum into real data of the same size
+	 * @param re real parts of the input: (w/2 + 1)*h values, used as workspace
+	 * @param im imaginary parts of the input: (w/2 + 1)*h values, used as workspace
+	 * @param w spectrum width
+	 * @param h spectrum height
+	 * @param data real output of size w x h in row-major order
+	 */
+	static void ifft2D(double[] re, double[] im, int w, int h, double[] data) {
+		final int stride = w/2 + 1;
+		
+		transformColumns(re, im, stride, h, stride, true);
+		Parallel.For(0, h, v -> {
+			FFT1D.irfft(re, im, v*stride, data, v*w, w);
+		});
+	}
+	
+	/**
+	 * In-place 1D transforms of the first nCols columns of w*h split arrays.
+	 * Blocks of adjacent columns are transformed in parallel: each block is gathered into a 
+	 * contiguous scratch buffer, so every row access reads ColumnBlock consecutive values.
+	 * @param re real parts
+	 * @param im imaginary parts
+	 * @param w row length (stride)
+	 * @param h number of rows
+	 * @param nCols number of transformed columns
+	 * @param inverse
+	 */
+	private static void transformColumns(double[] re, double[] im, int w, int h, int nCols, boolean inverse) {
+		final int nBlocks = (nCols + ColumnBlock - 1)/ColumnBlock;
 		
+		Parallel.For(0, nBlocks, 
+			// local data: scratch buffer of one block per chunk
+			() -> new double[2][ColumnBlock*h],
+			// loop body
+			(b, scratch) -> {
+				final double[] colRe = scratch[0], colIm = scratch[1];
+				final int u0 = b*ColumnBlock;
+				final int n = Math.min(ColumnBlock, nCols - u0);
+				
+				// gather: column c of the block is stored at [c*h, (c + 1)*h)
+				for (int v=0; v < h; v++) {
+					final int pos = v*w + u0;
+					for (int c=0; c < n; c++) {
+						colRe[c*h + v] = re[pos + c];
+						colIm[c*h + v] = im[pos + c];
+					}
+				}
+				for (int c=0; c < n; c++) {
+					if (inverse) FFT1D.ifft(colRe, colIm, c*h, h); else FFT1D.fft(colRe, colIm, c*h, h);
+				}
+				// scatter
+				for (int v=0; v < h; v++) {
+					final int pos = v*w + u0;
+					for (int c=0; c < n; c++) {
+						re[pos + c] = colRe[c*h + v];
+						im[pos + c] = colIm[c*h + v];
+					}
+				}
+			}
+		);
+	}
+	
+	/**
+	 * Returns the smallest power of 2 >= n
+	 * @param n
+	 * @return
+	 */
+	static int powerOf2(int n) {
+		int l = n - 1;
+		int p = 1;
+		while(l > 0) {
+			l >>= 1;
+			p <<= 1;
+		}
+		return p;
 	}
 	
 	/**
@@ -256,7 +462,7 @@ public class FFT implements IImageProcessor {
 		FHT fht2D = new FHT(inData);
 		
 		fht2D.transform();
-		return new FrequencyDomain(inData, fht2D.getSpectrum());
+		return fht2D.getSpectrum(inData);
 	}
 		
 	/**
@@ -265,39 +471,53 @@ public class FFT implements IImageProcessor {
 	 * @return output image
 	 */
 	public static ImageData ifht2D(FrequencyDomain fd) {
-		FHT fht2D = new FHT(fd.m_g, fd.m_width, fd.m_height, fd.m_depth, fd.m_palette);
+		FHT fht2D = new FHT(fd);
 		
 		fht2D.inverseTransform();
 		return fht2D.getImage();
 	}
 
 	/**
-	 * Experiment: inverse image filtering
+	 * Creates a box filter image of the size of inData with the filter center in pos(0,0).
+	 * The pixels of the centered box are written directly to their swapped positions (ifftshift), 
+	 * hence no quadrants are swapped.
 	 * @param inData
-	 * @param option (0: blurred image, 1: deconvoluted, 2: deconvoluted integral parts, 3: lowpass of deconvoluted integral parts)
-	 * @return output image
+	 * @param fsize odd filter size
+	 * @return filter image: pixels in the box are 1, all others 0
 	 */
-	public static ImageData fft2DInverseFiltering(ImageData inData, int option) {
-		final int fsize = ((int)(Math.min(inData.width, inData.height)/FilterFactor))/2*2 + 1; assert((fsize&1) == 1);
-		final int hstart = (inData.height - fsize + 1)/2; 	// hstart = ceil((h - fsize)/2), ceil corresponds to odd fsize and swapImageQuadrants
+	private static ImageData createBoxFilter(ImageData inData, int fsize) {
+		final int hstart = (inData.height - fsize + 1)/2; 	// hstart = ceil((h - fsize)/2), ceil corresponds to odd fsize and ifftshift
 		final int wstart = (inData.width - fsize + 1)/2; 	// wstart = ceil((w - fsize)/2)
 		
 		ImageData filter = new ImageData(inData.width, inData.height, inData.depth, inData.palette);
-
-		// set box-filter to the center of filter image
+		
 		for (int v=hstart; v < hstart + fsize; v++) {
+			final int y = ShiftedSpectrum.ifftshift(v, inData.height);
+			
 			for (int u=wstart; u < wstart + fsize; u++) {
-				filter.setPixel(u, v, 1);
+				filter.setPixel(ShiftedSpectrum.ifftshift(u, inData.width), y, 1);
 			}
 		}
-		swapImageQuadrants(filter); // makes sure that the filter center is in pos(0,0)
+		return filter;
+	}
+	
+	/**
+	 * Experiment: inverse image filtering
+	 * @param inData
+	 * @param option (0: blurred image, 1: deconvoluted, 2: deconvoluted integral parts, 3: lowpass of deconvoluted integral parts,
+	 * 4: Wiener deconvolution, 5: Tikhonov deconvolution, 6: Richardson-Lucy deconvolution of integral parts blurred by a smaller box)
+	 * @return output image
+	 */
+	public static ImageData fft2DInverseFiltering(ImageData inData, int option) {
+		final int fsize = ((int)(Math.min(inData.width, inData.height)/FilterFactor))/2*2 + 1; assert((fsize&1) == 1);
+		final ImageData filter = createBoxFilter(inData, fsize);
 		
 		// forward FFT
 		FrequencyDomain fdf = fft2D(filter, fsize*fsize);
 		FrequencyDomain fdi = fft2D(inData);
 		
-		// convolve inData with filter
-		FrequencyDomain fdif = fdi.mul(fdf);
+		// convolve inData with filter: evaluated lazily in the inverse transforms
+		SpectralExpression fdif = SpectralExpression.of(fdi).mul(fdf);
 		
 		// inverse fft 
 		ImageData blurredData = ifft2D(fdif); // image with integer values
@@ -312,49 +532,35 @@ public class FFT implements IImageProcessor {
 			return ifft2D(fdif.div(fdf));			
 		case 2:
 			// inverse filtering using integral blurred data
-			return ifft2D(fft2D(blurredData).div(fdf));
+			return ifft2D(SpectralExpression.of(fft2D(blurredData)).div(fdf));
 		case 3:
 		{
 			// using integral blurred data
 			FrequencyDomain fdif2 = fft2D(blurredData);
-
-			final int width = fdif.getSpectrumWidth();
-        	final int height = fdif.getSpectrumHeight();
-        	final int sigmoidScale = 2;
-    		final int sigmoidDomain = 16*sigmoidScale;
-			final int r = Math.min(width, height)/35 - sigmoidDomain/2;
-    		final int hD2 = height/2;
-    		final int wD2 = width/2;
-
-    		// lowpass filter: TODO implement and improve in FrequencyDomain
-        	Parallel.For(-hD2, height - hD2, v2 -> {
-        		final int v = (v2 < 0) ? v2 + height : v2;
-        		
-    			for (int u2=-wD2; u2 < width - wD2; u2++) {
-    				final int u = (u2 < 0) ? u2 + width : u2;
-            		final double dist = Math.hypot(u2, v2);
-            		
-            		if ((u != 0 || v != 0) && dist > r) {
-            			if (dist < r + sigmoidDomain) {
-            				final double t = dist - r - sigmoidDomain/2;
-            				fdif2.multiply(u, v, 1 - sigmoid(t/sigmoidScale));
-            			} else {
-            				fdif2.setValue(u, v, 0, 0);
-            			}
-            		}
-    			}
-      		});
+			final int r = Math.min(fdi.getSpectrumWidth(), fdi.getSpectrumHeight())/35;
+			final int sigmoidScale = 2;
+			FrequencyFilter lowPass = FrequencyFilter.sigmoidLowPass(r, sigmoidScale);
         	
-			// inverse filtering using non-integral data
-			return ifft2D(fdif2.div(fdf));
+			// inverse filtering using non-integral data: lowpass and division are fused into the inverse transform
+			return ifft2D(SpectralExpression.of(fdif2).filter(lowPass).div(fdf));
+		}
+		case 4:
+			// regularized inverse filtering using integral blurred data
+			return ifft2D(Deconvolution.wiener(SpectralExpression.of(fft2D(blurredData)), fdf, WienerK));
+		case 5:
+			return ifft2D(Deconvolution.tikhonov(SpectralExpression.of(fft2D(blurredData)), fdf, TikhonovLambda));
+		case 6:
+		{
+			// Richardson-Lucy converges too slowly for the large box: the image is blurred by a smaller box
+			final int rlSize = ((int)(fsize*RichardsonLucyBoxScale))/2*2 + 1;
+			FrequencyDomain rlf = fft2D(createBoxFilter(inData, rlSize), rlSize*rlSize);
+			ImageData rlBlurredData = ifft2D(SpectralExpression.of(fdi).mul(rlf));
+			
+			return Deconvolution.richardsonLucy(rlBlurredData, rlf, RichardsonLucyIterations);
 		}
 		}
 	}
 	
-	private static double sigmoid(double t) {
-		return 0.5 + Math.tanh(t/2)/2;
-	}
-	
 	/**
 	 * Experiment: inverse image filtering
 	 * @param inData
@@ -363,17 +569,7 @@ public class FFT implements IImageProcessor {
 	 */
 	public static ImageData fht2DInverseFiltering(ImageData inData, int option) {
 		final int fsize = ((int)(Math.min(inData.width, inData.height)/FilterFactor))/2*2 + 1; assert((fsize&1) == 1);
-		final int hstart = (inData.height - fsize + 1)/2; 	// hstart = ceil((h - fsize)/2), ceil corresponds to odd fsize and swapImageQuadrants
-		final int wstart = (inData.width - fsize + 1)/2; 	// wstart = ceil((w - fsize)/2)
-		
-		ImageData filter = new ImageData(inData.width, inData.height, inData.depth, inData.palette);
-
-		for (int v=hstart; v < hstart + fsize; v++) {
-			for (int u=wstart; u < wstart + fsize; u++) {
-				filter.setPixel(u, v, 1);
-			}
-		}
-		swapImageQuadrants(filter);
+		final ImageData filter = createBoxFilter(inData, fsize);
 		
 		FHT fht2Df = new FHT(filter, fsize*fsize); // filter coefficients: 1/(fsize*fsize)
 		FHT fht2Di = new FHT(inData);
@@ -421,47 +617,64 @@ public class FFT implements IImageProcessor {
 	 * @return output image of the power spectrum
 	 */
 	public static ImageData getPowerSpectrum(FrequencyDomain fd) {
-		final int height = fd.getSpectrumHeight();
-		final int width = fd.getSpectrumWidth();
+		return getPowerSpectrum(fd, false);
+	}
+	
+	/**
+	 * 2D power spectrum image: log(re^2 + im^2).
+	 * The log powers of the stored coefficients are computed and their range is reduced in one parallel pass,
+	 * a second pass quantizes them into the image. The image is cached until fd is modified.
+	 * @param fd frequency domain object
+	 * @param shifted true: the origin is at the center of the image (swapped quadrants without copying the spectrum)
+	 * @return output image of the power spectrum
+	 */
+	public static ImageData getPowerSpectrum(FrequencyDomain fd, boolean shifted) {
+		ImageData outData = getCachedSpectrum(fd, true, shifted, false);
+		if (outData != null) return outData;
+		
+		final int stride = fd.getStride();
+		final double[] logPower = new double[stride*fd.getSpectrumHeight()];
+		final double[] range = { Double.POSITIVE_INFINITY, Math.log(Double.MIN_VALUE)/2 }; // min, max
+		
+		Parallel.For(0, fd.getSpectrumHeight(), 
+			// creator
+			() -> new double[] { Double.POSITIVE_INFINITY, Math.log(Double.MIN_VALUE)/2 },
+			// loop body
+			(v, r) -> {
+				final int end = (v + 1)*stride;
+				
+				for (int i = v*stride; i < end; i++) {
+					final double l = Math.log(fd.m_re[i]*fd.m_re[i] + fd.m_im[i]*fd.m_im[i])/2;
+					logPower[i] = l;
+					if (l < r[0]) r[0] = l;
+					if (l > r[1]) r[1] = l;
+				}
+			},
+			// reducer
+			r -> {
+				if (r[0] < range[0]) range[0] = r[0];
+				if (r[1] > range[1]) range[1] = r[1];
+			}
+		);
 
 		if (fd.m_powerScale == 0) {
 			final double delta = 50;
+			final double max = range[1];
+			double min = range[0];
 			
-			double min = Double.MAX_VALUE;
-			double max = Double.MIN_VALUE;
-	
-	  		for (int row=0; row < height; row++) {
-				for (int col=0; col < width; col++) {
-					final double power = fd.m_g[row][col].abs2();
-					if (power < min) min = power;
-					if (power > max) max = power;
-				}
-			}
-	
 	  		//System.out.println("min = " + min + ", max = " + max);
-			max = Math.log(max)/2;
-			min = Math.log(min)/2;
 			if (Double.isNaN(min) || max - min > delta)
 				min = max - delta; //display range not more than approx. e^delta
 			fd.m_powerScale = 253.999/(max - min);
 			fd.m_min = min;
 		}
-
- 		byte[] ps = new byte[height*width];
- 		
-		Parallel.For(0, height, row -> {
-			final int offset = row*width;
-			
-			for (int col=0; col < width; col++) {
-				double power = fd.m_g[row][col].abs2();
-				power = (Math.log(power)/2 - fd.m_min)*fd.m_powerScale;
-				if (Double.isNaN(power) || power < 0) power = 0;
-				ps[offset + col] = (byte)ImageProcessing.clamp8(power + 1); // 1 is min value
-			}
-  		});
 		
-		ImageData outData = new ImageData(width, height, fd.m_depth, fd.m_palette, 1, ps);
-		return outData;		
+		final double scale = fd.m_powerScale, min = fd.m_min;
+		outData = render(fd, shifted, (i, conjugate) -> {
+			final double power = (logPower[i] - min)*scale;
+			return (Double.isNaN(power) || power < 0) ? 1 : ImageProcessing.clamp8(power + 1); // 1 is min value
+		});
+		return cacheSpectrum(fd, true, shifted, false, outData);
 	}
 	
 	/**
@@ -470,24 +683,142 @@ public class FFT implements IImageProcessor {
 	 * @return output image of the phase spectrum
 	 */
 	public static ImageData getPhaseSpectrum(FrequencyDomain fd) {
+		return getPhaseSpectrum(fd, false, false);
+	}
+	
+	/**
+	 * 2D phase spectrum image. 
+	 * The phases of the stored coefficients are computed in one parallel pass, a second pass quantizes them into the image.
+	 * The image is cached until fd is modified.
+	 * @param fd frequency domain object
+	 * @param shifted true: the origin is at the center of the image (swapped quadrants without copying the spectrum)
+	 * @param fast true: FastMath.atan2 is used instead of Math.atan2
+	 * @return output image of the phase spectrum
+	 */
+	public static ImageData getPhaseSpectrum(FrequencyDomain fd, boolean shifted, boolean fast) {
+		ImageData outData = getCachedSpectrum(fd, false, shifted, fast);
+		if (outData != null) return outData;
+		
 		final double PID2 = Math.PI/2;
+		final double scale = 255/Math.PI;
+		final int stride = fd.getStride();
+		final double[] phase = new double[stride*fd.getSpectrumHeight()];
+		
+		Parallel.For(0, fd.getSpectrumHeight(), v -> {
+			final int end = (v + 1)*stride;
+			
+			if (fast) {
+				for (int i = v*stride; i < end; i++) phase[i] = FastMath.atan2(fd.m_im[i], fd.m_re[i]);
+			} else {
+				for (int i = v*stride; i < end; i++) phase[i] = Math.atan2(fd.m_im[i], fd.m_re[i]);
+			}
+		});
+		
+		// the phase of a conjugate coefficient is negated
+		outData = render(fd, shifted, (i, conjugate) -> ImageProcessing.clamp8(((conjugate ? -phase[i] : phase[i]) + PID2)*scale));
+		return cacheSpectrum(fd, false, shifted, fast, outData);
+	}
+	
+	/**
+	 * Gray value of a stored coefficient
+	 */
+	private static interface SpectrumPixel {
+		/**
+		 * @param i array index of the stored coefficient
+		 * @param conjugate true: the pixel shows the conjugate of the stored coefficient
+		 * @return gray value
+		 */
+		int get(int i, boolean conjugate);
+	}
+	
+	/**
+	 * Renders a spectrum image of the size of the spectrum
+	 * @param fd frequency domain object
+	 * @param shifted true: the origin is at the center of the image
+	 * @param pixel gray values of the stored coefficients
+	 * @return output image
+	 */
+	private static ImageData render(FrequencyDomain fd, boolean shifted, SpectrumPixel pixel) {
 		final int height = fd.getSpectrumHeight();
 		final int width = fd.getSpectrumWidth();
-		final double scale = 255/Math.PI;
+		final int stride = fd.getStride();
 		
  		byte[] ps = new byte[height*width];
  		
 		Parallel.For(0, height, row -> {
 			final int offset = row*width;
-
+			final int v = shifted ? ShiftedSpectrum.ifftshift(row, height) : row;
+			final int pos = v*stride;
+			final int mpos = ((height - v)%height)*stride + width; // index of the conjugate of (u,v) is mpos - u
+			
 			for (int col=0; col < width; col++) {
-				double phi = fd.m_g[row][col].arg();
-				ps[offset + col] = (byte)ImageProcessing.clamp8((phi + PID2)*scale);
+				final int u = shifted ? ShiftedSpectrum.ifftshift(col, width) : col;
+				ps[offset + col] = (byte)((u < stride) ? pixel.get(pos + u, false) : pixel.get(mpos - u, true));
 			}
-		});
+  		});
 		
-		ImageData outData = new ImageData(width, height, fd.m_depth, fd.m_palette, 1, ps);
-		return outData;
+		return new ImageData(width, height, fd.m_depth, fd.m_palette, 1, ps);
+	}
+	
+	/**
+	 * Spectrum image of a frequency domain object in a certain version
+	 */
+	private static class SpectrumImage {
+		final WeakReference<FrequencyDomain> m_fd;
+		final int m_version;
+		final boolean m_power, m_shifted, m_fast;
+		final double m_powerScale, m_min;
+		final ImageData m_image;
+		
+		SpectrumImage(FrequencyDomain fd, boolean power, boolean shifted, boolean fast, ImageData image) {
+			m_fd = new WeakReference<>(fd);
+			m_version = fd.getVersion();
+			m_power = power;
+			m_shifted = shifted;
+			m_fast = fast;
+			m_powerScale = fd.m_powerScale;
+			m_min = fd.m_min;
+			m_image = image;
+		}
+		
+		boolean matches(FrequencyDomain fd, boolean power, boolean shifted, boolean fast) {
+			return m_fd.get() == fd && m_version == fd.getVersion() && m_power == power && m_shifted == shifted && m_fast == fast
+				&& (!power || m_powerScale == fd.m_powerScale && m_min == fd.m_min);
+		}
+	}
+	
+	/**
+	 * Returns a copy of the cached spectrum image or null
+	 */
+	private static ImageData getCachedSpectrum(FrequencyDomain fd, boolean power, boolean shifted, boolean fast) {
+		synchronized(s_spectrumImages) {
+			Iterator<SpectrumImage> it = s_spectrumImages.iterator();
+			
+			while (it.hasNext()) {
+				final SpectrumImage si = it.next();
+				
+				if (si.m_fd.get() == null) {
+					it.remove();
+				} else if (si.matches(fd, power, shifted, fast)) {
+					// move to front
+					it.remove();
+					s_spectrumImages.addFirst(si);
+					return (ImageData)si.m_image.clone();
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Caches a spectrum image and returns a copy of it: callers may modify the returned image
+	 */
+	private static ImageData cacheSpectrum(FrequencyDomain fd, boolean power, boolean shifted, boolean fast, ImageData image) {
+		synchronized(s_spectrumImages) {
+			s_spectrumImages.addFirst(new SpectrumImage(fd, power, shifted, fast, image));
+			while (s_spectrumImages.size() > SpectrumCacheCapacity) s_spectrumImages.removeLast();
+		}
+		return (ImageData)image.clone();
 	}
 	
 	/**	
@@ -501,6 +832,8 @@ public class FFT implements IImageProcessor {
 	 * B.h = ceil(h/2) = h1
 	 * D.w = floor(w/2) = w2
 	 * D.h = floor(h/2) = h2
+	 * The image is modified in place: spectra are rendered centered without swapping by getPowerSpectrum(fd, true) 
+	 * and getPhaseSpectrum(fd, true, fast).
 	 */
 	public static void swapQuadrants(ImageData inData) {
 		final int w2 = inData.width/2,  w1 = inData.width - w2;
@@ -528,6 +861,7 @@ public class FFT implements IImageProcessor {
 	 * B.h = floor(h/2) = h1
 	 * D.w = ceil(w/2) = w2
 	 * D.h = ceil(h/2) = h2
+	 * The image is modified in place: images can be created in swapped order by ShiftedSpectrum.ifftshift instead.
 	 */
 	public static void swapImageQuadrants(ImageData inData) {
 		final int w1 = inData.width/2,  w2 = inData.width - w1;
@@ -1,5 +1,7 @@
 package imageprocessing.fourier;
 
+import java.util.Arrays;
+
 import utils.Complex;
 
 /**
@@ -9,71 +11,348 @@ import utils.Complex;
  */
 public class FFT1D {
 	/**
-	 * Computes the FFT of x[], assuming its length is a power of 2
+	 * Computes the FFT of x[] of any length
 	 * Difference to DFT1D: for m > N/2 subtraction is used while DFT always adds terms
-	 * @param x input of size 2^k
+	 * @param x input
 	 * @return complex Fourier spectrum 
 	 */
     public static Complex[] fft(Complex[] x) {
-        int N = x.length;
-
-        // base case
-        if (N == 1) {
-        	return new Complex[] { x[0] };
-        } else {
-	        // radix 2 Cooley-Tukey FFT
-	        assert (N & 1) == 0 : "N is not a power of 2";
-	
-	        // fft of even terms
-	        Complex[] even = new Complex[N/2];
-	        for (int k = 0; k < N/2; k++) {
-	            even[k] = x[2*k];
-	        }
-	        Complex[] q = fft(even);
-	
-	        // fft of odd terms
-	        Complex[] odd  = even;  // reuse the array
-	        for (int k = 0; k < N/2; k++) {
-	            odd[k] = x[2*k + 1];
-	        }
-	        Complex[] r = fft(odd);
-	
-	        // combine
-	        Complex[] y = new Complex[N];
-	        for (int k = 0; k < N/2; k++) {
-	            final double kth = -2*k*Math.PI/N;
-	            Complex wk = new Complex(Math.cos(kth), Math.sin(kth));
-	            y[k]       = q[k].add(wk.mul(r[k]));
-	            y[k + N/2] = q[k].sub(wk.mul(r[k]));
-	        }
-	        return y;
-        }
+    	return transform(x, false);
     }
 
     /**
-     * Computes the inverse FFT of x[], assuming its length is a power of 2
+     * Computes the inverse FFT of x[] of any length
      * @param x complex Fourier spectrum
      * @return (complex) output data
      */
     public static Complex[] ifft(Complex[] x) {
-        int N = x.length;
-        Complex[] y = new Complex[N];
+    	return transform(x, true);
+    }
+    
+    /**
+     * In-place FFT of n complex values stored in split arrays.
+     * Powers of 2 and products of 2, 3, 5, and 7 are fastest, other sizes use Bluestein's algorithm.
+     * @param re real parts
+     * @param im imaginary parts
+     * @param offset index of the first value
+     * @param n number of values
+     */
+    public static void fft(double[] re, double[] im, int offset, int n) {
+    	transform(re, im, offset, n, false);
+    }
 
-        // take conjugate
-        for (int i = 0; i < N; i++) {
-            y[i] = x[i].conjugate();
-        }
+    /**
+     * In-place inverse FFT of n complex values stored in split arrays.
+     * The output is divided by n.
+     * @param re real parts
+     * @param im imaginary parts
+     * @param offset index of the first value
+     * @param n number of values
+     */
+    public static void ifft(double[] re, double[] im, int offset, int n) {
+    	transform(re, im, offset, n, true);
+    	
+    	final double f = 1.0/n;
+    	for (int i = offset; i < offset + n; i++) {
+    		re[i] *= f;
+    		im[i] *= f;
+    	}
+    }
 
-        // compute forward FFT
-        y = fft(y);
+    /**
+     * FFT of n real values.
+     * The output is the non-redundant half of the conjugate symmetric spectrum: n/2 + 1 coefficients.
+     * If n is even, the real input is packed into a complex sequence of length n/2 (even values as real parts, 
+     * odd values as imaginary parts), transformed, and split into the spectrum of the real input.
+     * Odd n use a complex transform of length n.
+     * @param x real input
+     * @param xOffset index of the first input value
+     * @param re real parts of the output (n/2 + 1 values)
+     * @param im imaginary parts of the output (n/2 + 1 values)
+     * @param offset index of the first output value
+     * @param n number of input values
+     */
+    public static void rfft(double[] x, int xOffset, double[] re, double[] im, int offset, int n) {
+    	if (n == 1) {
+    		re[offset] = x[xOffset];
+    		im[offset] = 0;
+    		return;
+    	}
+    	final int m = n/2;
+    	
+    	if ((n & 1) == 1) {
+    		final FFTPlan plan = FFTPlan.get(n);
+    		final double[] zr = plan.getScratch(4, n);
+    		final double[] zi = plan.getScratch(5, n);
+    		
+    		System.arraycopy(x, xOffset, zr, 0, n);
+    		Arrays.fill(zi, 0, n, 0);
+    		transform(zr, zi, 0, n, false);
+    		System.arraycopy(zr, 0, re, offset, m + 1);
+    		System.arraycopy(zi, 0, im, offset, m + 1);
+    		return;
+    	}
+    	
+    	// pack
+    	for (int k = 0; k < m; k++) {
+    		re[offset + k] = x[xOffset + 2*k];
+    		im[offset + k] = x[xOffset + 2*k + 1];
+    	}
+    	transform(re, im, offset, m, false);
+    	
+    	// split: X[k] = E[k] + exp(-i*2*pi*k/n)*O[k] with E[k] = (Z[k] + conj(Z[m-k]))/2, O[k] = (Z[k] - conj(Z[m-k]))/2i
+    	final FFTPlan plan = FFTPlan.get(n);
+    	final double z0r = re[offset], z0i = im[offset];
+    	
+    	re[offset] = z0r + z0i;
+    	im[offset] = 0;
+    	re[offset + m] = z0r - z0i;
+    	im[offset + m] = 0;
+    	for (int k = 1, j = m - 1; k <= j; k++, j--) {
+    		final double zkr = re[offset + k], zki = im[offset + k];
+    		final double zjr = re[offset + j], zji = im[offset + j];
+    		
+    		split(zkr, zki, zjr, zji, plan.m_cos[k], -plan.m_sin[k], re, im, offset + k);
+    		if (k != j) split(zjr, zji, zkr, zki, plan.m_cos[j], -plan.m_sin[j], re, im, offset + j);
+    	}
+    }
+    
+    /**
+     * Inverse of rfft: computes n real values from the non-redundant half of a conjugate symmetric spectrum. 
+     * The output is divided by n. 
+     * The imaginary parts of the first and (for even n) last coefficient are ignored.
+     * @param re real parts of the input (n/2 + 1 values), used as workspace
+     * @param im imaginary parts of the input (n/2 + 1 values), used as workspace
+     * @param offset index of the first input value
+     * @param x real output
+     * @param xOffset index of the first output value
+     * @param n number of output values
+     */
+    public static void irfft(double[] re, double[] im, int offset, double[] x, int xOffset, int n) {
+    	if (n == 1) {
+    		x[xOffset] = re[offset];
+    		return;
+    	}
+    	final int m = n/2;
+    	
+    	if ((n & 1) == 1) {
+    		// complete the conjugate symmetric spectrum
+    		final FFTPlan plan = FFTPlan.get(n);
+    		final double[] zr = plan.getScratch(4, n);
+    		final double[] zi = plan.getScratch(5, n);
+    		
+    		zr[0] = re[offset];
+    		zi[0] = 0;
+    		for (int k = 1; k <= m; k++) {
+    			zr[k] = zr[n - k] = re[offset + k];
+    			zi[k] = im[offset + k];
+    			zi[n - k] = -zi[k];
+    		}
+    		ifft(zr, zi, 0, n);
+    		System.arraycopy(zr, 0, x, xOffset, n);
+    		return;
+    	}
+    	final FFTPlan plan = FFTPlan.get(n);
+    	final double x0 = re[offset], xm = re[offset + m];
+    	
+    	// merge: Z[k] = E[k] + i*O[k] with E[k] = (X[k] + conj(X[m-k]))/2, O[k] = (X[k] - conj(X[m-k]))*exp(i*2*pi*k/n)/2
+    	for (int k = 1, j = m - 1; k <= j; k++, j--) {
+    		final double xkr = re[offset + k], xki = im[offset + k];
+    		final double xjr = re[offset + j], xji = im[offset + j];
+    		
+    		merge(xkr, xki, xjr, xji, plan.m_cos[k], plan.m_sin[k], re, im, offset + k);
+    		if (k != j) merge(xjr, xji, xkr, xki, plan.m_cos[j], plan.m_sin[j], re, im, offset + j);
+    	}
+    	re[offset] = (x0 + xm)*0.5;
+    	im[offset] = (x0 - xm)*0.5;
+    	ifft(re, im, offset, m);
+    	
+    	// unpack
+    	for (int k = 0; k < m; k++) {
+    		x[xOffset + 2*k] = re[offset + k];
+    		x[xOffset + 2*k + 1] = im[offset + k];
+    	}
+    }
+    
+    /**
+     * X[k] = E[k] + w*O[k], E = (Z[k] + conj(Z[j]))/2, O = (Z[k] - conj(Z[j]))/2i
+     */
+    private static void split(double zkr, double zki, double zjr, double zji, double wr, double wi, double[] re, double[] im, int i) {
+    	final double er = (zkr + zjr)*0.5, ei = (zki - zji)*0.5;
+    	final double or = (zki + zji)*0.5, oi = -(zkr - zjr)*0.5;
+    	
+    	re[i] = er + wr*or - wi*oi;
+    	im[i] = ei + wr*oi + wi*or;
+    }
+    
+    /**
+     * Z[k] = E + i*O, E = (X[k] + conj(X[j]))/2, O = w*(X[k] - conj(X[j]))/2
+     */
+    private static void merge(double xkr, double xki, double xjr, double xji, double wr, double wi, double[] re, double[] im, int i) {
+    	final double er = (xkr + xjr)*0.5, ei = (xki - xji)*0.5;
+    	final double dr = (xkr - xjr)*0.5, di = (xki + xji)*0.5;
+    	final double or = wr*dr - wi*di, oi = wr*di + wi*dr;
+    	
+    	re[i] = er - oi;
+    	im[i] = ei + or;
+    }
 
-        // take conjugate again
-        // divide by N
-        for (int i = 0; i < N; i++) {
-            y[i].conj();
-            y[i].divide(N);
+    private static Complex[] transform(Complex[] x, boolean inverse) {
+    	final int N = x.length;
+    	double[] re = new double[N];
+    	double[] im = new double[N];
+    	
+    	for (int i = 0; i < N; i++) {
+    		re[i] = x[i].m_re;
+    		im[i] = x[i].m_im;
+    	}
+    	if (inverse) ifft(re, im, 0, N); else fft(re, im, 0, N);
+    	
+    	Complex[] y = new Complex[N];
+    	for (int i = 0; i < N; i++) {
+    		y[i] = new Complex(re[i], im[i]);
+    	}
+    	return y;
+    }
+    
+    private static void transform(double[] re, double[] im, int offset, int n, boolean inverse) {
+        assert n > 0 : "n must be positive";
+        if (n == 1) return;
+        
+        final FFTPlan plan = FFTPlan.get(n);
+        if (plan.m_bitReversal != null) {
+        	radix2(re, im, offset, n, plan, inverse);
+        } else if (plan.m_factors != null) {
+        	mixedRadix(re, im, offset, n, plan, inverse);
+        } else {
+        	bluestein(re, im, offset, n, plan, inverse);
+        }
+    }
+    
+    /**
+     * Iterative radix 2 Cooley-Tukey FFT: bit reversal permutation followed by log2(n) butterfly stages
+     */
+    private static void radix2(double[] re, double[] im, int offset, int n, FFTPlan plan, boolean inverse) {
+        final int[] pairs = plan.m_bitReversal;
+        final double[] cos = plan.m_cos;
+        final double[] sin = plan.m_sin;
+        // forward transform uses exp(-i*2*pi*k/n), inverse transform exp(i*2*pi*k/n)
+        final double sign = inverse ? 1 : -1;
+        
+        // bit reversal permutation
+        for (int p = 0; p < pairs.length; p += 2) {
+        	final int i = offset + pairs[p], j = offset + pairs[p + 1];
+        	double t = re[i]; re[i] = re[j]; re[j] = t;
+        	t = im[i]; im[i] = im[j]; im[j] = t;
+        }
+        
+        // butterflies
+        for (int len = 2; len <= n; len <<= 1) {
+        	final int half = len >> 1;
+        	final int step = n/len;
+        	
+        	for (int start = offset; start < offset + n; start += len) {
+        		for (int k = 0, t = 0; k < half; k++, t += step) {
+        			final double wr = cos[t], wi = sign*sin[t];
+        			final int i = start + k, j = i + half;
+        			final double xr = wr*re[j] - wi*im[j];
+        			final double xi = wr*im[j] + wi*re[j];
+        			
+        			re[j] = re[i] - xr;
+        			im[j] = im[i] - xi;
+        			re[i] += xr;
+        			im[i] += xi;
+        		}
+        	}
+        }
+    }
+    
+    /**
+     * Stockham autosort FFT with radices 2, 3, 5, and 7: each stage computes DFTs of size p over strided inputs 
+     * and multiplies the results by the twiddle factors, alternating between the input and a work buffer.
+     */
+    private static void mixedRadix(double[] re, double[] im, int offset, int n, FFTPlan plan, boolean inverse) {
+        final double[] cos = plan.m_cos;
+        final double[] sin = plan.m_sin;
+        final double sign = inverse ? 1 : -1;
+        double[] xr = plan.getScratch(0, n);
+        double[] xi = plan.getScratch(1, n);
+        double[] yr = plan.getScratch(2, n);
+        double[] yi = plan.getScratch(3, n);
+        final double[] ar = plan.getScratch(6, 7);	// inputs of a butterfly: radix <= 7
+        final double[] ai = plan.getScratch(7, 7);
+        int s = 1;	// stride: product of the radices of the previous stages
+        
+        System.arraycopy(re, offset, xr, 0, n);
+        System.arraycopy(im, offset, xi, 0, n);
+        
+        for (int p : plan.m_factors) {
+        	final int m = n/(s*p);
+        	final int root = n/p;	// table step of the p-th roots of unity
+        	
+        	for (int q = 0; q < m; q++) {
+        		for (int k = 0; k < s; k++) {
+        			for (int j = 0; j < p; j++) {
+        				ar[j] = xr[k + s*(q + m*j)];
+        				ai[j] = xi[k + s*(q + m*j)];
+        			}
+        			for (int t = 0; t < p; t++) {
+        				// DFT of size p
+        				double sr = ar[0], si = ai[0];
+        				for (int j = 1; j < p; j++) {
+        					final int e = (j*t % p)*root;
+        					final double wr = cos[e], wi = sign*sin[e];
+        					sr += wr*ar[j] - wi*ai[j];
+        					si += wr*ai[j] + wi*ar[j];
+        				}
+        				// twiddle factor exp(-+i*2*pi*t*q*s/n)
+        				final int e = t*q*s;
+        				final double wr = cos[e], wi = sign*sin[e];
+        				final int o = k + s*(p*q + t);
+        				yr[o] = wr*sr - wi*si;
+        				yi[o] = wr*si + wi*sr;
+        			}
+        		}
+        	}
+        	double[] tr = xr; xr = yr; yr = tr;
+        	double[] ti = xi; xi = yi; yi = ti;
+        	s *= p;
+        }
+        System.arraycopy(xr, 0, re, offset, n);
+        System.arraycopy(xi, 0, im, offset, n);
+    }
+    
+    /**
+     * Bluestein's FFT for arbitrary sizes: the DFT is expressed as a convolution with a chirp, 
+     * which is computed by power of 2 FFTs. The inverse transform uses ifft(x) = conj(fft(conj(x)))*n.
+     */
+    private static void bluestein(double[] re, double[] im, int offset, int n, FFTPlan plan, boolean inverse) {
+        final int m = plan.m_m;
+        final double[] cr = plan.m_chirpRe, ci = plan.m_chirpIm;
+        final double[] kr = plan.m_kernelRe, ki = plan.m_kernelIm;
+        final double sign = inverse ? -1 : 1;
+        final double[] ar = plan.getScratch(0, m);
+        final double[] ai = plan.getScratch(1, m);
+        
+        Arrays.fill(ar, n, m, 0);
+        Arrays.fill(ai, n, m, 0);
+        
+        for (int k = 0; k < n; k++) {
+        	final double xr = re[offset + k], xi = sign*im[offset + k];
+        	ar[k] = xr*cr[k] - xi*ci[k];
+        	ai[k] = xr*ci[k] + xi*cr[k];
+        }
+        transform(ar, ai, 0, m, false);
+        for (int k = 0; k < m; k++) {
+        	final double xr = ar[k], xi = ai[k];
+        	ar[k] = xr*kr[k] - xi*ki[k];
+        	ai[k] = xr*ki[k] + xi*kr[k];
+        }
+        ifft(ar, ai, 0, m);
+        for (int k = 0; k < n; k++) {
+        	final double xr = ar[k], xi = ai[k];
+        	re[offset + k] = xr*cr[k] - xi*ci[k];
+        	im[offset + k] = sign*(xr*ci[k] + xi*cr[k]);
         }
-
-        return y;
     }
 }
@@ -0,0 +1,203 @@
+package imageprocessing.fourier;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Precomputed transform plan of a transform size n: twiddle factors, bit reversal tables and per-thread scratch buffers.
+ * The same plan serves forward and inverse transforms, FFTs and FHTs.
+ * Powers of 2 use the radix 2 transform, products of 2, 3, 5, and 7 the mixed radix transform,
+ * all other sizes Bluestein's algorithm.
+ *
+ * Plans are immutable (except for their lazily created tables and the per-thread scratch buffers) and shared
+ * between threads. They are cached in a bounded LRU cache.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public final class FFTPlan {
+	public static final int CacheCapacity = 32;	// max number of cached plans
+	static final int ScratchSlots = 8;			// slots 0..3: transform internals, slots 4..5: real transforms, slots 6..7: butterflies
+
+	private static final LinkedHashMap<Integer, FFTPlan> s_cache = new LinkedHashMap<Integer, FFTPlan>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, FFTPlan> eldest) {
+			return size() > CacheCapacity;
+		}
+	};
+
+	/**
+	 * Sine and cosine tables of the Fast Hartley Transform
+	 */
+	static final class Hartley {
+		final float[] m_cos, m_sin;	// cos(2*pi*k/n), sin(2*pi*k/n) for k < n/4
+		final int[] m_bitReversal;	// bit reversed index of k
+
+		private Hartley(int n) {
+			final int bits = Integer.numberOfTrailingZeros(n);
+			double theta = 0.0;
+			final double dTheta = 2.0*Math.PI/n;
+
+			m_cos = new float[n/4];
+			m_sin = new float[n/4];
+			for (int i = 0; i < n/4; i++) {
+				m_cos[i] = (float)Math.cos(theta);
+				m_sin[i] = (float)Math.sin(theta);
+				theta += dTheta;
+			}
+			m_bitReversal = new int[n];
+			for (int i = 0; i < n; i++) {
+				m_bitReversal[i] = (bits == 0) ? 0 : Integer.reverse(i) >>> (32 - bits);
+			}
+		}
+	}
+
+	public final int m_n;			// transform size
+	final int[] m_bitReversal;		// radix 2: pairs (i, j) with i < j to swap
+	final int[] m_factors;			// mixed radix: radices of the stages
+	final double[] m_cos, m_sin;	// cos(2*pi*k/n), sin(2*pi*k/n) for k < n/2 (radix 2) or k < n (otherwise)
+	final double[] m_chirpRe, m_chirpIm;	// Bluestein: exp(-i*pi*k^2/n) for k < n
+	final double[] m_kernelRe, m_kernelIm;	// Bluestein: spectrum of the conjugate chirp of length m_m
+	final int m_m;					// Bluestein: power of 2 convolution length
+	private volatile Hartley m_hartley;
+	private final ThreadLocal<double[][]> m_scratch = ThreadLocal.withInitial(() -> new double[ScratchSlots][]);
+
+	/**
+	 * Returns the cached plan of transform size n or creates a new one
+	 * @param n transform size
+	 * @return plan
+	 */
+	public static FFTPlan get(int n) {
+		assert n > 0 : "n must be positive";
+		FFTPlan plan;
+
+		synchronized(s_cache) {
+			plan = s_cache.get(n);
+		}
+		if (plan == null) {
+			// created outside of the lock: Bluestein plans need another plan
+			plan = new FFTPlan(n);
+			synchronized(s_cache) {
+				final FFTPlan cached = s_cache.putIfAbsent(n, plan);
+				if (cached != null) plan = cached;
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Removes all cached plans
+	 */
+	public static void clearCache() {
+		synchronized(s_cache) {
+			s_cache.clear();
+		}
+	}
+
+	private FFTPlan(int n) {
+		m_n = n;
+		if ((n & (n - 1)) == 0) {
+			m_bitReversal = bitReversal(n);
+			m_factors = null;
+			m_cos = new double[n/2];
+			m_sin = new double[n/2];
+		} else {
+			m_bitReversal = null;
+			m_factors = factorize(n);
+			m_cos = new double[n];
+			m_sin = new double[n];
+		}
+		for (int k = 0; k < m_cos.length; k++) {
+			final double kth = 2*k*Math.PI/n;
+			m_cos[k] = Math.cos(kth);
+			m_sin[k] = Math.sin(kth);
+		}
+
+		if (m_bitReversal == null && m_factors == null) {
+			// Bluestein: X[k] = c[k]*sum_j (x[j]*c[j])*conj(c[k - j]) with chirp c[k] = exp(-i*pi*k^2/n)
+			m_m = Integer.highestOneBit(2*n - 1) << 1;
+			m_chirpRe = new double[n];
+			m_chirpIm = new double[n];
+			m_kernelRe = new double[m_m];
+			m_kernelIm = new double[m_m];
+			for (int k = 0; k < n; k++) {
+				final double kth = Math.PI*((long)k*k % (2*n))/n;
+				m_chirpRe[k] = Math.cos(kth);
+				m_chirpIm[k] = -Math.sin(kth);
+				m_kernelRe[k] = m_chirpRe[k];
+				m_kernelIm[k] = -m_chirpIm[k];
+				if (k > 0) {
+					m_kernelRe[m_m - k] = m_kernelRe[k];
+					m_kernelIm[m_m - k] = m_kernelIm[k];
+				}
+			}
+			FFT1D.fft(m_kernelRe, m_kernelIm, 0, m_m);
+		} else {
+			m_m = 0;
+			m_chirpRe = m_chirpIm = m_kernelRe = m_kernelIm = null;
+		}
+	}
+
+	/**
+	 * Returns the Hartley tables, assuming n is a power of 2
+	 */
+	Hartley getHartley() {
+		Hartley h = m_hartley;
+
+		if (h == null) {
+			assert m_bitReversal != null : "n is not a power of 2";
+			m_hartley = h = new Hartley(m_n);
+		}
+		return h;
+	}
+
+	/**
+	 * Returns a scratch buffer of the calling thread
+	 * @param slot scratch slot
+	 * @param length minimum length
+	 * @return buffer with undefined content
+	 */
+	double[] getScratch(int slot, int length) {
+		final double[][] slots = m_scratch.get();
+		double[] buffer = slots[slot];
+
+		if (buffer == null || buffer.length < length) {
+			slots[slot] = buffer = new double[length];
+		}
+		return buffer;
+	}
+
+	private static int[] bitReversal(int n) {
+		final int bits = Integer.numberOfTrailingZeros(n);
+		int cnt = 0;
+		int[] pairs = new int[n];
+
+		for (int i = 0; i < n; i++) {
+			final int j = (bits == 0) ? 0 : Integer.reverse(i) >>> (32 - bits);
+			if (i < j) {
+				pairs[cnt++] = i;
+				pairs[cnt++] = j;
+			}
+		}
+		return Arrays.copyOf(pairs, cnt);
+	}
+
+	/**
+	 * Returns the radices 2, 3, 5, 7 of n or null if n has other prime factors
+	 */
+	private static int[] factorize(int n) {
+		int[] factors = new int[32];
+		int cnt = 0;
+
+		for (int p : new int[] { 2, 3, 5, 7 }) {
+			while (n % p == 0) {
+				factors[cnt++] = p;
+				n /= p;
+			}
+		}
+		return (n == 1) ? Arrays.copyOf(factors, cnt) : null;
+	}
+}
@@ -5,16 +5,22 @@ import org.eclipse.swt.graphics.PaletteData;
 
 import imageprocessing.ImageProcessing;
 import utils.Complex;
+import utils.FrequencyDomain;
+import utils.Parallel;
 
 /**
- * 2D Fast Hartley Transform
+ * 2D Fast Hartley Transform of rectangular images.
+ * Image width and height are separately rounded up to powers of 2: maxW and maxH.
+ * The coefficients are stored row by row in maxW*maxH floats.
  * @author Christoph Stamm
  *
  */
 public class FHT extends FHT1D implements Cloneable {
+	static final int ColumnBlock = 8;	// number of adjacent columns transformed together
+	
 	private int width, height;
 	private boolean isFrequencyDomain;
-	private int maxN;
+	private int maxW, maxH;
 	private float[] pixels;
 	private int depth;
 	private PaletteData palette;
@@ -35,13 +41,9 @@ public class FHT extends FHT1D implements Cloneable {
 		palette = inData.palette;
 		isFrequencyDomain = false;
 		
-		int l = Math.max(inData.width, inData.height) - 1;
-		maxN = 1;
-		while(l > 0) {
-			l >>= 1;
-			maxN <<= 1;
-		}
-		pixels = new float[maxN*maxN];
+		maxW = powerOf2(inData.width);
+		maxH = powerOf2(inData.height);
+		pixels = new float[maxW*maxH];
 		
 		int iPos = 0, oPos = 0;
 		for (int v = 0; v < inData.height; v++) {
@@ -50,7 +52,7 @@ public class FHT extends FHT1D implements Cloneable {
 				pixels[oPos++] = (0xFF & inData.data[iPos++])/(float)norm; // unsigned values
 			}
 			iPos += inData.bytesPerLine - inData.width;
-			oPos += maxN - inData.width;
+			oPos += maxW - inData.width;
 		}
 	}
 
@@ -67,36 +69,70 @@ public class FHT extends FHT1D implements Cloneable {
 		height = h;
 		this.depth = depth;
 		this.palette = palette;
-		maxN = G.length;
-		maxN = G[0].length;
-		pixels = new float[maxN*maxN];
+		maxH = G.length;
+		maxW = G[0].length;
+		pixels = new float[maxW*maxH];
 		isFrequencyDomain = true;
 		
 		int base = 0;
-		for (int row = 0; row < maxN; row++) {
-	        int offs = ((maxN - row)%maxN)*maxN;
+		for (int row = 0; row < maxH; row++) {
+	        int offs = ((maxH - row)%maxH)*maxW;
 	        
-	        for (int col = 0; col < maxN; col++) {
+	        for (int col = 0; col < maxW; col++) {
 	        	int omegaPlus = base + col;
-	        	int omegaNeg = offs + ((maxN - col)%maxN);
+	        	int omegaNeg = offs + ((maxW - col)%maxW);
 	        	Complex c = G[row][col];
 	        	
 	        	// compute FHT using FT
 	        	pixels[omegaPlus] = (float)(c.m_re - c.m_im);
 	        	pixels[omegaNeg]  = (float)(c.m_re + c.m_im);
 	        }
-	        base += maxN;
+	        base += maxW;
+		}
+	}
+
+	/**
+	 * Constructor for inverse transform
+	 * @param fd spectrum with power of 2 width and height
+	 */
+	public FHT(FrequencyDomain fd) {
+		fd = fd.toFull();
+		width = fd.m_width;
+		height = fd.m_height;
+		depth = fd.m_depth;
+		palette = fd.m_palette;
+		maxW = fd.getSpectrumWidth();
+		maxH = fd.getSpectrumHeight();
+		assert powerOf2(maxW) == maxW && powerOf2(maxH) == maxH : "spectrum size is not a power of 2";
+		pixels = new float[maxW*maxH];
+		isFrequencyDomain = true;
+		
+		final double[] re = fd.m_re, im = fd.m_im;
+		int base = 0;
+		for (int row = 0; row < maxH; row++) {
+	        int offs = ((maxH - row)%maxH)*maxW;
+	        
+	        for (int col = 0; col < maxW; col++) {
+	        	int omegaPlus = base + col;
+	        	int omegaNeg = offs + ((maxW - col)%maxW);
+	        	
+	        	// compute FHT using FT
+	        	pixels[omegaPlus] = (float)(re[omegaPlus] - im[omegaPlus]);
+	        	pixels[omegaNeg]  = (float)(re[omegaPlus] + im[omegaPlus]);
+	        }
+	        base += maxW;
 		}
 	}
 
 	private FHT(FHT fht2D, float[] fht) {
-		maxN = fht2D.maxN;
+		maxW = fht2D.maxW;
+		maxH = fht2D.maxH;
 		width = fht2D.width;
 		height = fht2D.height;
 		depth = fht2D.depth;
 		palette = fht2D.palette;
 		
-		assert fht.length == maxN*maxN : "fht has wrong length";
+		assert fht.length == maxW*maxH : "fht has wrong length";
 		pixels = fht;
 		isFrequencyDomain = true;		
 	}
@@ -110,51 +146,101 @@ public class FHT extends FHT1D implements Cloneable {
 
 	/**
 	 * Performs a forward transform, converting this image into the frequency
-	 * domain. The image contained in this FHT2D must be square and its width must
-	 * be a power of 2.
+	 * domain.
 	 */
 	public void transform() {
-		rc2DFHT(pixels, false, maxN);
+		rc2DFHT(pixels, false);
 		isFrequencyDomain = true;
 	}
 
 	/**
 	 * Performs an inverse transform, converting this image into the space
-	 * domain. The image contained in this FHT2D must be square and its width must
-	 * be a power of 2.
+	 * domain.
 	 */
 	public void inverseTransform() {
-		rc2DFHT(pixels, true, maxN);
+		rc2DFHT(pixels, true);
 		isFrequencyDomain = false;
 	}
 
-	/** Performs a 2D FHT (Fast Hartley Transform). */
-	private void rc2DFHT(float[] x, boolean inverse, int maxN) {
-		initializeTables(maxN);
-		for (int row = 0; row < maxN; row++)
-			dfht3(x, row*maxN, inverse, maxN);
-		transposeR(x, maxN);
-		for (int row = 0; row < maxN; row++)
-			dfht3(x, row * maxN, inverse, maxN);
-		transposeR(x, maxN);
+	/** Performs a 2D FHT (Fast Hartley Transform) in parallel. */
+	private void rc2DFHT(float[] x, boolean inverse) {
+		final int w = maxW, h = maxH;
+		
+		transformRows(x, inverse);
+		transformColumns(x, inverse);
 
-		int mRow, mCol;
-		float A, B, C, D, E;
-		for (int row = 0; row <= maxN / 2; row++) { // Now calculate actual Hartley transform
-			for (int col = 0; col <= maxN / 2; col++) {
-				mRow = (maxN - row) % maxN;
-				mCol = (maxN - col) % maxN;
-				A = x[row * maxN + col]; // see Bracewell, 'Fast 2D Hartley Transf.' IEEE Procs. 9/86
-				B = x[mRow * maxN + col];
-				C = x[row * maxN + mCol];
-				D = x[mRow * maxN + mCol];
-				E = ((A + D) - (B + C)) / 2;
-				x[row * maxN + col] = A - E;
-				x[mRow * maxN + col] = B + E;
-				x[row * maxN + mCol] = C + E;
-				x[mRow * maxN + mCol] = D - E;
+		// Now calculate actual Hartley transform: row and its mirrored row (h - row) % h are only accessed by one iteration
+		Parallel.For(0, h/2 + 1, row -> {
+			final int mRow = (h - row) % h;
+			
+			for (int col = 0; col <= w / 2; col++) {
+				final int mCol = (w - col) % w;
+				final float A = x[row * w + col]; // see Bracewell, 'Fast 2D Hartley Transf.' IEEE Procs. 9/86
+				final float B = x[mRow * w + col];
+				final float C = x[row * w + mCol];
+				final float D = x[mRow * w + mCol];
+				final float E = ((A + D) - (B + C)) / 2;
+				x[row * w + col] = A - E;
+				x[mRow * w + col] = B + E;
+				x[row * w + mCol] = C + E;
+				x[mRow * w + mCol] = D - E;
 			}
-		}
+		});
+	}
+	
+	/** Performs 1D FHTs of all rows in parallel. */
+	private void transformRows(float[] x, boolean inverse) {
+		final int w = maxW;
+		
+		Parallel.For(0, maxH, 
+			// local data: scratch array per chunk
+			() -> new float[w],
+			// loop body
+			(row, temp) -> {
+				dfht3(x, row*w, inverse, w, temp);
+			}
+		);
+	}
+	
+	/** 
+	 * Performs 1D FHTs of all columns in parallel. Blocks of adjacent columns are gathered 
+	 * into a contiguous scratch buffer, transformed, and scattered back.
+	 */
+	private void transformColumns(float[] x, boolean inverse) {
+		final int w = maxW, h = maxH;
+		final int nBlocks = (w + ColumnBlock - 1)/ColumnBlock;
+		
+		Parallel.For(0, nBlocks, 
+			// local data: column block and temp array per chunk
+			() -> new float[][] { new float[ColumnBlock*h], new float[h] },
+			// loop body
+			(b, scratch) -> {
+				final float[] cols = scratch[0];
+				final int u0 = b*ColumnBlock;
+				final int n = Math.min(ColumnBlock, w - u0);
+				
+				// gather: column c of the block is stored at [c*h, (c + 1)*h)
+				for (int v = 0; v < h; v++) {
+					final int pos = v*w + u0;
+					for (int c = 0; c < n; c++) cols[c*h + v] = x[pos + c];
+				}
+				for (int c = 0; c < n; c++) {
+					dfht3(cols, c*h, inverse, h, scratch[1]);
+				}
+				// scatter
+				for (int v = 0; v < h; v++) {
+					final int pos = v*w + u0;
+					for (int c = 0; c < n; c++) x[pos + c] = cols[c*h + v];
+				}
+			}
+		);
+	}
+	
+	/**
+	 * Returns the smallest power of 2 >= n
+	 */
+	private static int powerOf2(int n) {
+		return (n <= 1) ? 1 : Integer.highestOneBit(n - 1) << 1;
 	}
 
 	public ImageData getImage() {
@@ -166,31 +252,60 @@ public class FHT extends FHT1D implements Cloneable {
 				outData.data[oPos++] = (byte)ImageProcessing.clamp8(pixels[iPos++]);	// unsigned values
 				//outData.data[oPos++] = (byte)ImageProcessing.signedClamp8(pixels[iPos++]);	// signed values				
 			}
-			iPos += maxN - outData.width;
+			iPos += maxW - outData.width;
 			oPos += outData.bytesPerLine - outData.width;
 		}
 		
 		return outData;
 	}
 	
+	/**
+	 * Returns the Fourier spectrum of this frequency domain image
+	 * @param inData input image
+	 * @return frequency domain object
+	 */
+	public FrequencyDomain getSpectrum(ImageData inData) {
+		if (!isFrequencyDomain)
+			throw new  IllegalArgumentException("Frequency domain image required");
+		
+		final double[] re = new double[maxW*maxH];
+		final double[] im = new double[maxW*maxH];
+
+		int base = 0;
+		for (int row = 0; row < maxH; row++) {
+	        final int offs = ((maxH - row)%maxH)*maxW;
+	        
+	        for (int col = 0; col < maxW; col++) {
+	        	final int omegaPlus = base + col;
+	        	final int omegaNeg = offs + ((maxW - col)%maxW);
+	        	
+	        	// compute FT using FHT
+	        	re[omegaPlus] = (pixels[omegaPlus] + pixels[omegaNeg])*0.5;
+	        	im[omegaPlus] = (-pixels[omegaPlus] + pixels[omegaNeg])*0.5;
+	        }
+	        base += maxW;
+		}
+		return new FrequencyDomain(inData, inData.width, inData.height, maxW, maxH, false, re, im);
+	}
+	
 	public Complex[][] getSpectrum() {
 		if (!isFrequencyDomain)
 			throw new  IllegalArgumentException("Frequency domain image required");
 		
-		Complex[][] G = new Complex[maxN][maxN];
+		Complex[][] G = new Complex[maxH][maxW];
 
 		int base = 0;
-		for (int row = 0; row < maxN; row++) {
-	        final int offs = ((maxN - row)%maxN)*maxN;
+		for (int row = 0; row < maxH; row++) {
+	        final int offs = ((maxH - row)%maxH)*maxW;
 	        
-	        for (int col = 0; col < maxN; col++) {
+	        for (int col = 0; col < maxW; col++) {
 	        	final int omegaPlus = base + col;
-	        	final int omegaNeg = offs + ((maxN - col)%maxN);
+	        	final int omegaNeg = offs + ((maxW - col)%maxW);
 	        	
 	        	// compute FT using FHT
 	        	G[row][col] = new Complex((pixels[omegaPlus] + pixels[omegaNeg])*0.5, (-pixels[omegaPlus] + pixels[omegaNeg])*0.5);
 	        }
-	        base += maxN;
+	        base += maxW;
 		}
 		return G;
 	}
@@ -222,21 +337,23 @@ public class FHT extends FHT1D implements Cloneable {
 	FHT multiply(FHT fht, boolean conjugate) {
 		float[] p1 = pixels;
 		float[] p2 = fht.pixels;
-		float[] tmp = new float[maxN*maxN];
+		final int w = maxW, h = maxH;
+		float[] tmp = new float[w*h];
 		
-		for (int r = 0; r < maxN; r++) {
-			final int rowMod = (maxN - r) % maxN;
+		assert w == fht.maxW && h == fht.maxH : "different transform sizes";
+		Parallel.For(0, h, r -> {
+			final int rowMod = (h - r) % h;
 			
-			for (int c = 0; c < maxN; c++) {
-				final int colMod = (maxN - c) % maxN;
-				final double h2e = (p2[r*maxN + c] + p2[rowMod*maxN + colMod])/2;
-				final double h2o = (p2[r*maxN + c] - p2[rowMod*maxN + colMod])/2;
+			for (int c = 0; c < w; c++) {
+				final int colMod = (w - c) % w;
+				final double h2e = (p2[r*w + c] + p2[rowMod*w + colMod])/2;
+				final double h2o = (p2[r*w + c] - p2[rowMod*w + colMod])/2;
 				if (conjugate) 
-					tmp[r*maxN + c] = (float)(p1[r*maxN + c]*h2e - p1[rowMod*maxN + colMod]*h2o);
+					tmp[r*w + c] = (float)(p1[r*w + c]*h2e - p1[rowMod*w + colMod]*h2o);
 				else
-					tmp[r*maxN + c] = (float)(p1[r*maxN + c]*h2e + p1[rowMod*maxN + colMod]*h2o);
+					tmp[r*w + c] = (float)(p1[r*w + c]*h2e + p1[rowMod*w + colMod]*h2o);
 			}
-		}
+		});
 		return new FHT(this, tmp);
 	}
 		
@@ -247,22 +364,24 @@ public class FHT extends FHT1D implements Cloneable {
 	public FHT divide(FHT fht) {
 		float[] p1 = pixels;
 		float[] p2 = fht.pixels;
-		float[] out = new float[maxN*maxN];
+		final int w = maxW, h = maxH;
+		float[] out = new float[w*h];
 		
-		for (int r = 0; r < maxN; r++) {
-			final int rowMod = (maxN - r) % maxN;
+		assert w == fht.maxW && h == fht.maxH : "different transform sizes";
+		Parallel.For(0, h, r -> {
+			final int rowMod = (h - r) % h;
 			
-			for (int c = 0; c < maxN; c++) {
-				final int colMod = (maxN - c) % maxN;
+			for (int c = 0; c < w; c++) {
+				final int colMod = (w - c) % w;
 				
-				double mag = p2[r*maxN + c] * p2[r*maxN + c] + p2[rowMod*maxN + colMod]*p2[rowMod*maxN + colMod];
+				double mag = p2[r*w + c] * p2[r*w + c] + p2[rowMod*w + colMod]*p2[rowMod*w + colMod];
 				if (mag < 1e-20) mag = 1e-20;
-				final double h2e = (p2[r*maxN + c] + p2[rowMod*maxN + colMod]);
-				final double h2o = (p2[r*maxN + c] - p2[rowMod*maxN + colMod]);
-				final double tmp = (p1[r*maxN + c]*h2e - p1[rowMod*maxN + colMod]*h2o);
-				out[r*maxN + c] = (float)(tmp/mag);
+				final double h2e = (p2[r*w + c] + p2[rowMod*w + colMod]);
+				final double h2o = (p2[r*w + c] - p2[rowMod*w + colMod]);
+				final double tmp = (p1[r*w + c]*h2e - p1[rowMod*w + colMod]*h2o);
+				out[r*w + c] = (float)(tmp/mag);
 			}
-		}
+		});
 		return new FHT(this, out);
 	}
 	
@@ -273,7 +392,7 @@ public class FHT extends FHT1D implements Cloneable {
 			if (width != fht.width) return false;
 			if (height != fht.height) return false;
 			if (isFrequencyDomain != fht.isFrequencyDomain) return false;
-			if (maxN != fht.maxN) return false;
+			if (maxW != fht.maxW || maxH != fht.maxH) return false;
 			if (depth != fht.depth) return false;
 			final int size = height*width;
 			for(int i = 0; i < size; i++) {
@@ -8,50 +8,40 @@ package imageprocessing.fourier;
  * by Stanford University in 1995 and is now freely available.
  */
 public class FHT1D {
-	private float[] tempArr;
-	private int[] bitrev;
-	private float[] C;
-	private float[] S;
-	
-	void initializeTables(int maxN) {
-		if (S == null) {
-			makeSinCosTables(maxN);
-			makeBitReverseTable(maxN);
-			tempArr = new float[maxN];
-		}
-	}
-
-	void makeSinCosTables(int maxN) {
-		int n = maxN / 4;
-		C = new float[n];
-		S = new float[n];
-		double theta = 0.0;
-		double dTheta = 2.0 * Math.PI / maxN;
-		for (int i = 0; i < n; i++) {
-			C[i] = (float) Math.cos(theta);
-			S[i] = (float) Math.sin(theta);
-			theta += dTheta;
-		}
+	static {
+		// images with a side of 1 or 2 pixels need the short transforms
+		assert isInvertible(1) && isInvertible(2) && isInvertible(4) && isInvertible(64) : "FHT round trip failed";
 	}
 
-	void makeBitReverseTable(int maxN) {
-		bitrev = new int[maxN];
-		int nLog2 = log2(maxN);
-		for (int i = 0; i < maxN; i++)
-			bitrev[i] = bitRevX(i, nLog2);
-	}
-
-	/** Performs an optimized 1D FHT. */
-	void dfht3(float[] x, int base, boolean inverse, int maxN) {
+	/** 
+	 * Performs an optimized 1D FHT. Sine, cosine and bit reversal tables are taken from the cached 
+	 * transform plan of size maxN. Concurrent calls are safe if they use different temp arrays.
+	 * @param maxN any power of 2
+	 * @param temp scratch array of length maxN
+	 */
+	void dfht3(float[] x, int base, boolean inverse, int maxN, float[] temp) {
 		int i, stage, gpNum, gpSize, numGps, Nlog2;
 		int bfNum, numBfs;
 		int Ad0, Ad1, Ad2, Ad3, Ad4, CSAd;
 		float rt1, rt2, rt3, rt4;
 
-		if (S == null)
-			initializeTables(maxN);
+		if (maxN < 4) {
+			// the radix 4 butterflies below need at least 4 values: a single value is its own transform
+			if (maxN == 2) {
+				rt1 = x[base] + x[base + 1];
+				rt2 = x[base] - x[base + 1];
+				x[base] = (inverse) ? rt1/2 : rt1;
+				x[base + 1] = (inverse) ? rt2/2 : rt2;
+			}
+			return;
+		}
+
+		final FFTPlan.Hartley tables = FFTPlan.get(maxN).getHartley();
+		final float[] C = tables.m_cos;
+		final float[] S = tables.m_sin;
+		
 		Nlog2 = log2(maxN);
-		bitRevRArr(x, base, Nlog2, maxN); // bitReverse the input array
+		bitRevRArr(x, base, tables.m_bitReversal, maxN, temp); // bitReverse the input array
 		gpSize = 2; // first & second stages - do radix 4 butterflies once thru
 		numGps = maxN / 4;
 		for (gpNum = 0; gpNum < numGps; gpNum++) {
@@ -118,19 +108,20 @@ public class FHT1D {
 		}
 	}
 
-	void transposeR(float[] x, int maxN) {
-		int r, c;
-		float rTemp;
-
-		for (r = 0; r < maxN; r++) {
-			for (c = r; c < maxN; c++) {
-				if (r != c) {
-					rTemp = x[r * maxN + c];
-					x[r * maxN + c] = x[c * maxN + r];
-					x[c * maxN + r] = rTemp;
-				}
-			}
+	/**
+	 * Returns true if the inverse transform restores the input of a forward transform of size n
+	 */
+	private static boolean isInvertible(int n) {
+		final FHT1D fht = new FHT1D();
+		final float[] x = new float[n], temp = new float[n];
+		
+		for (int i = 0; i < n; i++) x[i] = (i*37)%256;
+		fht.dfht3(x, 0, false, n, temp);
+		fht.dfht3(x, 0, true, n, temp);
+		for (int i = 0; i < n; i++) {
+			if (Math.abs(x[i] - (i*37)%256) > 1e-3f) return false;
 		}
+		return true;
 	}
 
 	int log2(int x) {
@@ -147,19 +138,10 @@ public class FHT1D {
 		return ((x & (1 << bit)) != 0);
 	}
 
-	void bitRevRArr(float[] x, int base, int bitlen, int maxN) {
-		for (int i = 0; i < maxN; i++)
-			tempArr[i] = x[base + bitrev[i]];
+	void bitRevRArr(float[] x, int base, int[] bitrev, int maxN, float[] temp) {
 		for (int i = 0; i < maxN; i++)
-			x[base + i] = tempArr[i];
-	}
-
-	private int bitRevX(int x, int bitlen) {
-		int temp = 0;
-		for (int i = 0; i <= bitlen; i++)
-			if ((x & (1 << i)) != 0)
-				temp |= (1 << (bitlen - i - 1));
-		return temp & 0x0000ffff;
+			temp[i] = x[base + bitrev[i]];
+		System.arraycopy(temp, 0, x, base, maxN);
 	}
 /*
 	private int bset(int x, int bit) {
@@ -7,10 +7,10 @@ import main.Picsi;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
 import utils.Matrix;
+import utils.Parallel;
+import utils.PixelAccess;
 import utils.Util;
 
-import javax.swing.*;
-
 public class Rotate implements IImageProcessor {
     @Override
     public boolean isEnabled(int imageType) {
@@ -19,12 +19,24 @@ public class Rotate implements IImageProcessor {
 
     @Override
     public ImageData run(ImageData inData, int imageType) {
-        String angleString = JOptionPane.showInputDialog("Angle");
+        String angleString = OptionPane.showInputDialog("Angle");
         int angleDegrees = Integer.parseInt(angleString);
-        double angle = angleDegrees / 360d * 2 * Math.PI;
 
         int method = OptionPane.showOptionDialog("Method", SWT.ICON_INFORMATION, new Object[]{ "Nearest Neighbor", "Bilinear" }, 0);
 
+        return rotate(inData, angleDegrees, method);
+    }
+
+    /**
+     * Rotates the image and enlarges the output image to the bounding box of the rotated image
+     * @param inData input image
+     * @param angleDegrees rotation angle in degrees [0, 360)
+     * @param method interpolation method: 0 = nearest neighbor, 1 = bilinear
+     * @return rotated image
+     */
+    public static ImageData rotate(ImageData inData, int angleDegrees, int method) {
+        double angle = angleDegrees / 360d * 2 * Math.PI;
+
         int dx1 = (int) Math.abs(Math.round(Math.sin(angle) * inData.height));
         int dx2 = (int) Math.abs(Math.round(Math.cos(angle) * inData.width));
         int dy1 = (int) Math.abs(Math.round(Math.sin(angle) * inData.width));
@@ -50,15 +62,20 @@ public class Rotate implements IImageProcessor {
 
         Matrix combined = translation.multiply(rotation).inverse();
 
-        for (int u = 0; u < outWidth; u++) {
-            for (int v = 0; v < outHeight; v++) {
-                double[] targetCoords = new double[] {u, v, 1};
-                double[] sourceCoords = combined.multiply(targetCoords);
+        PixelAccess inPixels = PixelAccess.create(inData);
+        PixelAccess outPixels = PixelAccess.create(outData);
 
-                int pixel = Util.interpolate(inData, sourceCoords[0], sourceCoords[1], method);
-                outData.setPixel(u, v, pixel);
+        Parallel.ForTiles(outWidth, outHeight, (u0, v0, u1, v1) -> {
+            for (int v = v0; v < v1; v++) {
+                for (int u = u0; u < u1; u++) {
+                    double[] targetCoords = new double[] {u, v, 1};
+                    double[] sourceCoords = combined.multiply(targetCoords);
+
+                    int pixel = Util.interpolate(inPixels, sourceCoords[0], sourceCoords[1], method);
+                    outPixels.setPixel(u, v, pixel);
+                }
             }
-        }
+        });
         return outData;
     }
 }
@@ -5,6 +5,8 @@ import imageprocessing.IImageProcessor;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
 import utils.Matrix;
+import utils.Parallel;
+import utils.PixelAccess;
 import utils.Util;
 
 public class RotateAndScale implements IImageProcessor {
@@ -32,15 +34,20 @@ public class RotateAndScale implements IImageProcessor {
 
         Matrix combined = translation.multiply(rotation).multiply(scaling).inverse();
 
-        for (int u = 0; u < outData.width; u++) {
-            for (int v = 0; v < outData.height; v++) {
-                double[] targetCoords = new double[] {u, v, 1};
-                double[] sourceCoords = combined.multiply(targetCoords);
+        PixelAccess inPixels = PixelAccess.create(inData);
+        PixelAccess outPixels = PixelAccess.create(outData);
 
-                int pixel = Util.interpolate(inData, sourceCoords[0], sourceCoords[1], method);
-                outData.setPixel(u, v, pixel);
+        Parallel.ForTiles(outData.width, outData.height, (u0, v0, u1, v1) -> {
+            for (int v = v0; v < v1; v++) {
+                for (int u = u0; u < u1; u++) {
+                    double[] targetCoords = new double[] {u, v, 1};
+                    double[] sourceCoords = combined.multiply(targetCoords);
+
+                    int pixel = Util.interpolate(inPixels, sourceCoords[0], sourceCoords[1], method);
+                    outPixels.setPixel(u, v, pixel);
+                }
             }
-        }
+        });
 
         return outData;
     }
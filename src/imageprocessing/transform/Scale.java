@@ -7,10 +7,10 @@ import main.Picsi;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
 import utils.Matrix;
+import utils.Parallel;
+import utils.PixelAccess;
 import utils.Util;
 
-import javax.swing.*;
-
 public class Scale implements IImageProcessor {
     @Override
     public boolean isEnabled(int imageType) {
@@ -19,11 +19,22 @@ public class Scale implements IImageProcessor {
 
     @Override
     public ImageData run(ImageData inData, int imageType) {
-        String scaleString = JOptionPane.showInputDialog("Scale");
+        String scaleString = OptionPane.showInputDialog("Scale");
         double scale = Double.parseDouble(scaleString);
 
         int method = OptionPane.showOptionDialog("Method", SWT.ICON_INFORMATION, new Object[]{ "Nearest Neighbor", "Bilinear" }, 0);
 
+        return scale(inData, scale, method);
+    }
+
+    /**
+     * Scales the image uniformly
+     * @param inData input image
+     * @param scale scaling factor
+     * @param method interpolation method: 0 = nearest neighbor, 1 = bilinear
+     * @return scaled image
+     */
+    public static ImageData scale(ImageData inData, double scale, int method) {
         Matrix scaling = Matrix.scaling(scale, scale).inverse();
 
         int outWidth = (int) Math.round(inData.width * scale);
@@ -31,15 +42,20 @@ public class Scale implements IImageProcessor {
         ImageData outData = ImageProcessing.createImage(outWidth, outHeight, Picsi.IMAGE_TYPE_RGB);
         outData.palette = inData.palette;
 
-        for (int u = 0; u < outWidth; u++) {
-            for (int v = 0; v < outHeight; v++) {
-                double[] targetCoords = new double[] {u, v, 1};
-                double[] sourceCoords = scaling.multiply(targetCoords);
+        PixelAccess inPixels = PixelAccess.create(inData);
+        PixelAccess outPixels = PixelAccess.create(outData);
+
+        Parallel.ForTiles(outWidth, outHeight, (u0, v0, u1, v1) -> {
+            for (int v = v0; v < v1; v++) {
+                for (int u = u0; u < u1; u++) {
+                    double[] targetCoords = new double[] {u, v, 1};
+                    double[] sourceCoords = scaling.multiply(targetCoords);
 
-                int pixel = Util.interpolate(inData, sourceCoords[0], sourceCoords[1], method);
-                outData.setPixel(u, v, pixel);
+                    int pixel = Util.interpolate(inPixels, sourceCoords[0], sourceCoords[1], method);
+                    outPixels.setPixel(u, v, pixel);
+                }
             }
-        }
+        });
 
         return outData;
     }
@@ -0,0 +1,269 @@
+package main;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.ImageData;
+
+import files.Document;
+import files.ImageFiles;
+import gui.IOperationRegistry;
+import gui.ImageMenu;
+import imageprocessing.IImageProcessor;
+import imageprocessing.Pipeline;
+import utils.Parallel;
+
+/**
+ * Headless batch processing: runs a chain of image operations of the Image menu on many image files without a display.
+ * 
+ * Usage: Batch [options] -p <operations> -f <format> <glob>...
+ *   -p <operations>  comma separated operation names as shown in the Image menu, sub menu entries as "Menu/Entry",
+ *                    e.g. "Grayscale,Invert,Channel/R"
+ *   -f <format>      output file extension, e.g. png, bmp, pgm
+ *   -o <directory>   output directory (default: directory of the input file)
+ *   -t <threads>     number of concurrently processed files (default: number of processors); 
+ *                    bounds the number of images in memory
+ *   -timeout <ms>    maximum processing time per file, 0 = unlimited (default)
+ *   <glob>           input files, e.g. "images/*.png" or "images/**.jpg"
+ * 
+ * Operations asking for user input (dialogs) cannot be used headless.
+ * 
+ * @author Christoph Stamm
+ *
+ */
+public class Batch {
+	/**
+	 * Headless registry of the image operations
+	 */
+	private static class Operations implements IOperationRegistry {
+		private final Map<String, IImageProcessor> m_operations;
+		private final String m_prefix;
+		
+		public Operations() {
+			this(new LinkedHashMap<>(), "");
+			ImageMenu.register(this);
+		}
+		
+		private Operations(Map<String, IImageProcessor> operations, String prefix) {
+			m_operations = operations;
+			m_prefix = prefix;
+		}
+		
+		@Override
+		public void add(String text, int accelerator, IImageProcessor proc) {
+			m_operations.put((m_prefix + IOperationRegistry.operationName(text)).toLowerCase(), proc);
+		}
+
+		@Override
+		public IOperationRegistry addMenu(String text) {
+			return new Operations(m_operations, m_prefix + IOperationRegistry.operationName(text) + '/');
+		}
+		
+		public IImageProcessor get(String name) {
+			IImageProcessor proc = m_operations.get(name.trim().toLowerCase());
+			if (proc == null) {
+				throw new IllegalArgumentException("unknown operation: " + name + "\navailable operations: " + 
+					m_operations.keySet().stream().collect(Collectors.joining(", ")));
+			}
+			return proc;
+		}
+	}
+	
+	private final Pipeline m_pipeline = new Pipeline();
+	private final int m_fileType;
+	private final String m_extension;
+	private final Path m_outputDir;
+	private final long m_timeout;
+	
+	/**
+	 * Creates a batch processor
+	 * @param operations comma separated operation names
+	 * @param format output file extension
+	 * @param outputDir output directory or null
+	 * @param timeout maximum processing time per file in ms, 0 = unlimited
+	 */
+	public Batch(String operations, String format, Path outputDir, long timeout) {
+		Operations ops = new Operations();
+		
+		for (String name : operations.split(",")) {
+			if (!name.trim().isEmpty()) m_pipeline.add(ops.get(name));
+		}
+		m_extension = format.startsWith(".") ? format.substring(1) : format;
+		m_fileType = ImageFiles.determinefileType("." + m_extension);
+		if (m_fileType == SWT.IMAGE_UNDEFINED) throw new IllegalArgumentException("unknown output format: " + format);
+		m_outputDir = outputDir;
+		m_timeout = timeout;
+	}
+	
+	/**
+	 * Processes a single image file and returns its timings
+	 * @param input input file
+	 * @return output file name and durations of reading, processing, and writing
+	 * @throws Exception
+	 */
+	public String process(Path input) throws Exception {
+		final String inName = input.toString();
+		final int inFileType = ImageFiles.determinefileType(inName);
+		if (inFileType == SWT.IMAGE_UNDEFINED) throw new IllegalArgumentException("unknown input format");
+		
+		Document doc = new Document();
+		long t0 = System.nanoTime();
+		
+		doc.load(inName, inFileType);
+		long t1 = System.nanoTime();
+		
+		final ImageData inData = doc.getImage();
+		final int imageType = doc.getImageType();
+		if (!m_pipeline.isEnabled(imageType)) throw new IllegalArgumentException("operations not enabled for image type " + Picsi.imageTypeString(imageType));
+		
+		ImageData outData = Parallel.run(new Parallel.Context(m_timeout, null), () -> m_pipeline.run(inData, imageType));
+		if (outData == null) throw new IllegalStateException("no output image");
+		long t2 = System.nanoTime();
+		
+		String fileName = input.getFileName().toString();
+		int dot = fileName.lastIndexOf('.');
+		if (dot > 0) fileName = fileName.substring(0, dot);
+		Path dir = (m_outputDir != null) ? m_outputDir : input.toAbsolutePath().getParent();
+		Path output = dir.resolve(fileName + '.' + m_extension);
+		if (output.toAbsolutePath().normalize().equals(input.toAbsolutePath().normalize())) {
+			output = dir.resolve(fileName + "_out." + m_extension);
+		}
+		doc.setImage(outData);
+		doc.save(output.toString(), m_fileType);
+		long t3 = System.nanoTime();
+		
+		return Picsi.createMsg("{0}: read {1} ms, process {2} ms, write {3} ms", new Object[] { 
+			output, ms(t1 - t0), ms(t2 - t1), ms(t3 - t2) });
+	}
+	
+	/**
+	 * Processes all files with a bounded number of concurrent files and reports per file timings on the console
+	 * @param inputs input files
+	 * @param nThreads number of concurrently processed files
+	 * @return number of failed files
+	 * @throws InterruptedException
+	 */
+	public int process(List<Path> inputs, int nThreads) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		List<Future<?>> futures = new ArrayList<>(inputs.size());
+		int[] failed = new int[1];
+		
+		for (Path input : inputs) {
+			futures.add(executor.submit(() -> {
+				try {
+					String result = process(input);
+					synchronized(System.out) {
+						System.out.println(input + " -> " + result);
+					}
+				} catch(Throwable e) {
+					synchronized(System.out) {
+						failed[0]++;
+						System.err.println(input + ": " + e);
+					}
+				}
+			}));
+		}
+		executor.shutdown();
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch(Exception e) {
+				// already reported
+			}
+		}
+		return failed[0];
+	}
+	
+	/**
+	 * Returns all regular files matching the given glob pattern
+	 * @param glob glob pattern, e.g. "images/*.png"
+	 * @return sorted list of matching files
+	 * @throws IOException
+	 */
+	public static List<Path> findFiles(String glob) throws IOException {
+		// the base directory is the longest prefix without glob characters
+		String pattern = glob.replace('\\', '/');
+		int meta = 0;
+		while (meta < pattern.length() && "*?[{".indexOf(pattern.charAt(meta)) < 0) meta++;
+		
+		int slash = pattern.lastIndexOf('/', meta);
+		Path base = Paths.get((slash < 0) ? "." : (slash == 0) ? "/" : pattern.substring(0, slash));
+		
+		if (meta == pattern.length()) {
+			// plain file name
+			Path p = Paths.get(glob);
+			return Files.isRegularFile(p) ? List.of(p) : List.of();
+		}
+		
+		if (!Files.isDirectory(base)) return List.of();
+		
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(slash + 1));
+		try (Stream<Path> files = Files.walk(base)) {
+			return files.filter(p -> Files.isRegularFile(p) && matcher.matches(base.relativize(p)))
+				.sorted().collect(Collectors.toList());
+		}
+	}
+	
+	private static long ms(long ns) {
+		return ns/1000000;
+	}
+	
+	private static void usage() {
+		System.err.println("Usage: Batch [-o <directory>] [-t <threads>] [-timeout <ms>] -p <operations> -f <format> <glob>...");
+		System.err.println("  e.g. Batch -p \"Grayscale,Invert\" -f png -o out \"images/*.jpg\"");
+		System.exit(2);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		String operations = null, format = null;
+		Path outputDir = null;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		long timeout = 0;
+		List<String> globs = new ArrayList<>();
+		
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			
+			if (arg.startsWith("-") && i + 1 >= args.length) usage();
+			switch(arg) {
+			case "-p": operations = args[++i]; break;
+			case "-f": format = args[++i]; break;
+			case "-o": outputDir = Paths.get(args[++i]); break;
+			case "-t": nThreads = Integer.parseInt(args[++i]); break;
+			case "-timeout": timeout = Long.parseLong(args[++i]); break;
+			default:
+				if (arg.startsWith("-")) usage();
+				globs.add(arg);
+			}
+		}
+		if (operations == null || format == null || globs.isEmpty() || nThreads < 1) usage();
+		
+		ImageFiles.registerUserImageFiles();
+		Batch batch = new Batch(operations, format, outputDir, timeout);
+		if (outputDir != null) Files.createDirectories(outputDir);
+		
+		List<Path> inputs = new ArrayList<>();
+		for (String glob : globs) inputs.addAll(findFiles(glob));
+		
+		long start = System.nanoTime();
+		int failed = batch.process(inputs, nThreads);
+		
+		System.out.println(Picsi.createMsg("{0} files processed, {1} failed, {2} ms", new Object[] { 
+			inputs.size(), failed, ms(System.nanoTime() - start) }));
+		System.exit((failed > 0) ? 1 : 0);
+	}
+}
@@ -0,0 +1,38 @@
+package utils;
+
+/**
+ * Fast approximations of transcendental functions with bounded errors.
+ * They are intended for rendering, e.g. spectra quantized to 8 bits, where the errors are far below one gray level.
+ * Math.log isn't approximated: it is a JIT intrinsic and already as fast as a polynomial approximation.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class FastMath {
+	public static final double Atan2Error = 1e-5;	// max absolute error of atan2 in radians
+
+	/**
+	 * Angle of (x,y) with an absolute error less than Atan2Error radians.
+	 * Like Math.atan2 the result is in [-pi, pi] and odd in y: atan2(-y, x) = -atan2(y, x).
+	 * @param y
+	 * @param x
+	 * @return angle in radians
+	 */
+	public static double atan2(double y, double x) {
+		final double ax = Math.abs(x), ay = Math.abs(y);
+
+		if (ay == 0 && ax == 0 || Double.isNaN(x) || Double.isNaN(y) || Double.isInfinite(ax) || Double.isInfinite(ay)) {
+			return Math.atan2(y, x);
+		}
+
+		// atan(z) for z in [0, 1]: minimax polynomial
+		final boolean steep = ay > ax;
+		final double z = steep ? ax/ay : ay/ax;
+		final double z2 = z*z;
+		double a = z*(0.99997726 + z2*(-0.33262347 + z2*(0.19354346 + z2*(-0.11643287 + z2*(0.05265332 + z2*(-0.01172120))))));
+
+		if (steep) a = Math.PI/2 - a;
+		if (x < 0) a = Math.PI - a;
+		return Math.copySign(a, y);
+	}
+}
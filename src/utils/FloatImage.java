@@ -0,0 +1,243 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+
+import imageprocessing.ImageProcessing;
+import main.Picsi;
+
+/**
+ * Planar image with float channels: each channel is stored in its own contiguous float array.
+ * Channel values are intensities: [0,255] for binary, gray, RGB and indexed images.
+ * Binary, gray and gray32 images have one channel, RGB and indexed images have three channels (red, green, blue).
+ *
+ * Pixel (u,v) of channel c is stored in m_planes[c][m_offset + v*m_stride + u].
+ * Views share the planes of their base image, hence creating a view doesn't copy any data.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class FloatImage {
+	public final int m_width, m_height;	// image size
+	public final int m_stride;			// distance between two rows in floats
+	public final int m_offset;			// index of pixel (0,0)
+	public final float[][] m_planes;	// channel planes
+
+	/**
+	 * Creates a zero initialized image
+	 * @param width
+	 * @param height
+	 * @param nChannels number of channels
+	 */
+	public FloatImage(int width, int height, int nChannels) {
+		assert width > 0 && height > 0 && nChannels > 0 : "wrong image size";
+		m_width = width;
+		m_height = height;
+		m_stride = width;
+		m_offset = 0;
+		m_planes = new float[nChannels][width*height];
+	}
+
+	private FloatImage(int width, int height, int stride, int offset, float[][] planes) {
+		m_width = width;
+		m_height = height;
+		m_stride = stride;
+		m_offset = offset;
+		m_planes = planes;
+	}
+
+	public int getChannelCount() { return m_planes.length; }
+
+	/**
+	 * Returns the array index of pixel (u,v)
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return index in channel plane
+	 */
+	public int index(int u, int v) {
+		return m_offset + v*m_stride + u;
+	}
+
+	public float get(int c, int u, int v) {
+		return m_planes[c][m_offset + v*m_stride + u];
+	}
+
+	public void set(int c, int u, int v, float value) {
+		m_planes[c][m_offset + v*m_stride + u] = value;
+	}
+
+	/**
+	 * Returns a view of the rectangle [x, x + w) x [y, y + h) without copying data
+	 * @param x
+	 * @param y
+	 * @param w
+	 * @param h
+	 * @return view
+	 */
+	public FloatImage view(int x, int y, int w, int h) {
+		assert x >= 0 && y >= 0 && x + w <= m_width && y + h <= m_height : "view is out of bounds";
+		return new FloatImage(w, h, m_stride, index(x, y), m_planes);
+	}
+
+	/**
+	 * Returns a single channel view of channel c without copying data
+	 * @param c channel
+	 * @return view
+	 */
+	public FloatImage channel(int c) {
+		return new FloatImage(m_width, m_height, m_stride, m_offset, new float[][] { m_planes[c] });
+	}
+
+	/**
+	 * Returns a compact copy of this image or view
+	 */
+	@Override
+	public FloatImage clone() {
+		FloatImage image = new FloatImage(m_width, m_height, getChannelCount());
+
+		for (int c = 0; c < m_planes.length; c++) {
+			final float[] src = m_planes[c];
+			final float[] dst = image.m_planes[c];
+
+			Parallel.For(0, m_height, v -> {
+				System.arraycopy(src, index(0, v), dst, v*m_width, m_width);
+			});
+		}
+		return image;
+	}
+
+	/**
+	 * Converts image data to a planar float image
+	 * @param inData input image
+	 * @param imageType Picsi.IMAGE_TYPE_XXX
+	 * @return float image
+	 */
+	public static FloatImage fromImageData(ImageData inData, int imageType) {
+		final int w = inData.width;
+		final PixelAccess pixels = PixelAccess.create(inData);
+
+		switch(imageType) {
+		case Picsi.IMAGE_TYPE_BINARY:
+		case Picsi.IMAGE_TYPE_GRAY:
+		case Picsi.IMAGE_TYPE_GRAY32:
+		{
+			FloatImage image = new FloatImage(w, inData.height, 1);
+			final float[] p = image.m_planes[0];
+
+			Parallel.For(0, inData.height, () -> new int[w], (v, row) -> {
+				final int pos = v*w;
+
+				pixels.getPixels(0, v, w, row, 0);
+				if (imageType == Picsi.IMAGE_TYPE_BINARY) {
+					// 0 = white, 1 = black
+					for (int u = 0; u < w; u++) p[pos + u] = (row[u] == 0) ? 255 : 0;
+				} else {
+					for (int u = 0; u < w; u++) p[pos + u] = row[u];
+				}
+			});
+			return image;
+		}
+		case Picsi.IMAGE_TYPE_RGB:
+		case Picsi.IMAGE_TYPE_INDEXED:
+		{
+			FloatImage image = new FloatImage(w, inData.height, 3);
+			final float[] r = image.m_planes[0], g = image.m_planes[1], b = image.m_planes[2];
+			final PaletteData palette = inData.palette;
+			final RGB[] rgbs = palette.isDirect ? null : palette.getRGBs();
+
+			Parallel.For(0, inData.height, () -> new int[w], (v, row) -> {
+				final int pos = v*w;
+
+				pixels.getPixels(0, v, w, row, 0);
+				for (int u = 0; u < w; u++) {
+					final int pixel = row[u];
+
+					if (rgbs != null) {
+						final RGB rgb = rgbs[pixel];
+						r[pos + u] = rgb.red;
+						g[pos + u] = rgb.green;
+						b[pos + u] = rgb.blue;
+					} else {
+						r[pos + u] = channel(pixel, palette.redMask, palette.redShift);
+						g[pos + u] = channel(pixel, palette.greenMask, palette.greenShift);
+						b[pos + u] = channel(pixel, palette.blueMask, palette.blueShift);
+					}
+				}
+			});
+			return image;
+		}
+		default:
+			throw new IllegalArgumentException("unknown image type: " + imageType);
+		}
+	}
+
+	/**
+	 * Converts this image to image data of the given type. Values are rounded and clamped.
+	 * Binary output: values >= 128 are white.
+	 * Gray output of a three channel image: mean of the channels.
+	 * @param imageType Picsi.IMAGE_TYPE_BINARY, Picsi.IMAGE_TYPE_GRAY, Picsi.IMAGE_TYPE_RGB, or Picsi.IMAGE_TYPE_GRAY32
+	 * @return output image
+	 */
+	public ImageData toImageData(int imageType) {
+		final ImageData outData = ImageProcessing.createImage(m_width, m_height, imageType);
+		if (outData == null) throw new IllegalArgumentException("unsupported image type: " + imageType);
+
+		final PixelAccess pixels = PixelAccess.create(outData);
+		final int nChannels = getChannelCount();
+		final PaletteData palette = outData.palette;
+
+		Parallel.For(0, m_height, () -> new int[m_width], (v, row) -> {
+			final int pos = index(0, v);
+
+			for (int u = 0; u < m_width; u++) {
+				final int i = pos + u;
+
+				switch(imageType) {
+				case Picsi.IMAGE_TYPE_BINARY:
+					row[u] = (gray(i) >= 128) ? 0 : 1;
+					break;
+				case Picsi.IMAGE_TYPE_GRAY:
+					row[u] = ImageProcessing.clamp8(gray(i));
+					break;
+				case Picsi.IMAGE_TYPE_GRAY32:
+					row[u] = (int)Math.round(gray(i));
+					break;
+				case Picsi.IMAGE_TYPE_RGB:
+					if (nChannels == 1) {
+						final int c = ImageProcessing.clamp8(m_planes[0][i]);
+						row[u] = pixel(c, c, c, palette);
+					} else {
+						row[u] = pixel(ImageProcessing.clamp8(m_planes[0][i]), ImageProcessing.clamp8(m_planes[1][i]), ImageProcessing.clamp8(m_planes[2][i]), palette);
+					}
+					break;
+				}
+			}
+			pixels.setPixels(0, v, m_width, row, 0);
+		});
+		return outData;
+	}
+
+	private double gray(int i) {
+		if (m_planes.length == 1) {
+			return m_planes[0][i];
+		} else {
+			double sum = 0;
+			for (float[] p : m_planes) sum += p[i];
+			return sum/m_planes.length;
+		}
+	}
+
+	private static int channel(int pixel, int mask, int shift) {
+		// mask can be negative -> use >>> instead of >>
+		return (shift > 0) ? (mask & pixel) << shift : (mask & pixel) >>> -shift;
+	}
+
+	private static int pixel(int r, int g, int b, PaletteData palette) {
+		return shift(r, palette.redMask, palette.redShift) | shift(g, palette.greenMask, palette.greenShift) | shift(b, palette.blueMask, palette.blueShift);
+	}
+
+	private static int shift(int c, int mask, int shift) {
+		return ((shift > 0) ? c >>> shift : c << -shift) & mask;
+	}
+}
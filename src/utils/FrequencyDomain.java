@@ -1,13 +1,19 @@
 package utils;
 
-import java.util.Arrays;
-
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.PaletteData;
 
 /**
  * Frequency domain object used to store the result in Fourier Transforms
  * 
+ * The spectrum is stored in two primitive arrays (real and imaginary parts) in row-major order:
+ * coefficient (u,v) is at index v*getStride() + u. 
+ * Complex based accessors are provided for convenience, but they create a new object per call.
+ * 
+ * Spectra of real images are conjugate symmetric: G(u,v) = conj(G(-u,-v)). Such hermitian spectra
+ * only store the columns 0 <= u <= w/2, hence getStride() = w/2 + 1. The accessors with (u,v) 
+ * coordinates reconstruct the missing columns, element-wise operations only process the stored columns.
+ * 
  * @author Christoph Stamm
  *
  */
@@ -17,18 +23,18 @@ public class FrequencyDomain implements Cloneable {
 	public double m_powerScale;		// scale factor used in power spectrum, 0 = undefined scale
 	public double m_min;			// log of min transformed value
 	public PaletteData m_palette;	// image palette
-	public Complex[][] m_g;			// transformed image
+	public double[] m_re, m_im;		// transformed image: real and imaginary parts, call modified() after writing them directly
+	private int m_spectrumWidth, m_spectrumHeight;
+	private int m_stride;			// number of stored columns
+	private boolean m_hermitian;	// only the non-redundant half of a conjugate symmetric spectrum is stored
+	private int m_version;			// incremented by every modification
 	
 	/**
 	 * @param inData input image
 	 * @param g Fourier coefficients
 	 */
 	public FrequencyDomain(ImageData inData, Complex[][] g) {
-		m_width = inData.width;
-		m_height = inData.height;
-		m_depth = inData.depth;
-		m_palette = inData.palette;
-		m_g = g;
+		this(inData, inData.width, inData.height, g);
 	}
 	
 	/**
@@ -38,11 +44,40 @@ public class FrequencyDomain implements Cloneable {
 	 * @param g Fourier coefficients
 	 */
 	public FrequencyDomain(ImageData inData, int width, int height, Complex[][] g) {
+		this(inData, width, height, g[0].length, g.length, false, new double[g[0].length*g.length], new double[g[0].length*g.length]);
+		
+		Parallel.For(0, m_spectrumHeight, v -> {
+			final int pos = v*m_spectrumWidth;
+			
+			for (int u = 0; u < m_spectrumWidth; u++) {
+				m_re[pos + u] = g[v][u].m_re;
+				m_im[pos + u] = g[v][u].m_im;
+			}
+		});
+	}
+
+	/**
+	 * @param inData input image
+	 * @param width output width
+	 * @param height output height
+	 * @param spectrumWidth
+	 * @param spectrumHeight
+	 * @param hermitian true: only the columns 0 <= u <= spectrumWidth/2 of a conjugate symmetric spectrum are stored
+	 * @param re real parts of the Fourier coefficients in row-major order (not copied)
+	 * @param im imaginary parts of the Fourier coefficients in row-major order (not copied)
+	 */
+	public FrequencyDomain(ImageData inData, int width, int height, int spectrumWidth, int spectrumHeight, boolean hermitian, double[] re, double[] im) {
 		m_width = width;
 		m_height = height;
 		m_depth = inData.depth;
 		m_palette = inData.palette;
-		m_g = g;
+		m_spectrumWidth = spectrumWidth;
+		m_spectrumHeight = spectrumHeight;
+		m_hermitian = hermitian;
+		m_stride = hermitian ? spectrumWidth/2 + 1 : spectrumWidth;
+		m_re = re;
+		m_im = im;
+		assert re.length == m_stride*spectrumHeight && im.length == re.length : "wrong spectrum size";
 	}
 
 	/**
@@ -50,34 +85,96 @@ public class FrequencyDomain implements Cloneable {
 	 * @param fd
 	 */
 	public FrequencyDomain(FrequencyDomain fd) {
+		this(fd, true);
+		System.arraycopy(fd.m_re, 0, m_re, 0, m_re.length);
+		System.arraycopy(fd.m_im, 0, m_im, 0, m_im.length);
+	}
+	
+	/**
+	 * Creates a zero spectrum with the same attributes as fd
+	 * @param fd
+	 * @param dummy
+	 */
+	FrequencyDomain(FrequencyDomain fd, boolean dummy) {
 		m_width = fd.m_width;
 		m_height = fd.m_height;
 		m_depth = fd.m_depth;
 		m_palette = fd.m_palette;
 		m_powerScale = fd.m_powerScale;
 		m_min = fd.m_min;
-		m_g = new Complex[fd.m_g.length][];
-		
-		Parallel.For(0, m_g.length, v -> {
-			m_g[v] = Arrays.copyOf(fd.m_g[v], fd.m_g[v].length);
-		});
+		m_spectrumWidth = fd.m_spectrumWidth;
+		m_spectrumHeight = fd.m_spectrumHeight;
+		m_stride = fd.m_stride;
+		m_hermitian = fd.m_hermitian;
+		m_re = new double[fd.m_re.length];
+		m_im = new double[fd.m_im.length];
 	}
 	
-	private FrequencyDomain() {	
+	/**
+	 * Returns the array index of coefficient (u,v). 
+	 * If (u,v) isn't stored in a hermitian spectrum, then the index of its conjugate G(-u,-v) is returned.
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return index in m_re and m_im
+	 */
+	public int index(int u, int v) {
+		if (u < m_stride) {
+			return v*m_stride + u;
+		} else {
+			return ((m_spectrumHeight - v)%m_spectrumHeight)*m_stride + m_spectrumWidth - u;
+		}
 	}
 	
-	private FrequencyDomain(FrequencyDomain fd, boolean dummy) {
-		m_width = fd.m_width;
-		m_height = fd.m_height;
-		m_depth = fd.m_depth;
-		m_palette = fd.m_palette;
-		m_powerScale = fd.m_powerScale;
-		m_min = fd.m_min;
-		m_g = new Complex[fd.m_g.length][];	
+	/**
+	 * Returns true if coefficient (u,v) is stored, false if the conjugate G(-u,-v) is stored instead
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return
+	 */
+	public boolean isStored(int u, int v) {
+		return u < m_stride;
+	}
+	
+	/**
+	 * Returns true if only the non-redundant half of a conjugate symmetric spectrum is stored
+	 * @return
+	 */
+	public boolean isHermitian() {
+		return m_hermitian;
+	}
+	
+	/**
+	 * Returns the number of stored coefficients per row
+	 * @return spectrum width or spectrum width/2 + 1 for hermitian spectra
+	 */
+	public int getStride() {
+		return m_stride;
+	}
+	
+	/**
+	 * Returns the full spectrum of a hermitian spectrum
+	 * @return this if the spectrum isn't hermitian, otherwise a new full spectrum
+	 */
+	public FrequencyDomain toFull() {
+		if (!m_hermitian) return this;
 		
-		Parallel.For(0, m_g.length, v -> {
-			m_g[v] = new Complex[fd.m_g[v].length];
+		final int w = m_spectrumWidth, h = m_spectrumHeight;
+		FrequencyDomain fd = new FrequencyDomain(this, true);
+		fd.m_hermitian = false;
+		fd.m_stride = w;
+		fd.m_re = new double[w*h];
+		fd.m_im = new double[w*h];
+		
+		Parallel.For(0, h, v -> {
+			final int pos = v*w;
+			
+			for (int u = 0; u < w; u++) {
+				final int i = index(u, v);
+				fd.m_re[pos + u] = m_re[i];
+				fd.m_im[pos + u] = isStored(u, v) ? m_im[i] : -m_im[i];
+			}
 		});
+		return fd;
 	}
 	
 	/**
@@ -87,7 +184,8 @@ public class FrequencyDomain implements Cloneable {
 	 * @return amplitude
 	 */
 	public double getAmplitude(int u, int v) {
-		return m_g[v][u].abs();
+		final int i = index(u, v);
+		return Math.hypot(m_re[i], m_im[i]);
 	}
 	
 	/**
@@ -97,21 +195,89 @@ public class FrequencyDomain implements Cloneable {
 	 * @return phase
 	 */
 	public double getPhase(int u, int v) {
-		return m_g[v][u].arg();
+		final int i = index(u, v);
+		return Math.atan2(isStored(u, v) ? m_im[i] : -m_im[i], m_re[i]);
 	}
 	
-	public int getSpectrumWidth() { return m_g[0].length; }
-	public int getSpectrumHeight() { return m_g.length; }
+	/**
+	 * Returns a copy of the coefficient at given position
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return new complex number
+	 */
+	public Complex getValue(int u, int v) {
+		final int i = index(u, v);
+		return new Complex(m_re[i], isStored(u, v) ? m_im[i] : -m_im[i]);
+	}
 	
 	/**
-	 * Sets amplitude and phase at given position
+	 * Sets the coefficient at given position
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @param c coefficient
+	 */
+	public void setValue(int u, int v, Complex c) {
+		set(u, v, c.m_re, c.m_im);
+	}
+	
+	public int getSpectrumWidth() { return m_spectrumWidth; }
+	public int getSpectrumHeight() { return m_spectrumHeight; }
+	
+	/**
+	 * Returns the modification counter: it changes whenever the coefficients are changed by this object's methods
+	 * @return
+	 */
+	public int getVersion() { return m_version; }
+	
+	/**
+	 * Has to be called after writing m_re or m_im directly: invalidates cached renderings of this spectrum
+	 */
+	public void modified() {
+		m_version++;
+	}
+	
+	/**
+	 * Sets amplitude and phase at given position.
+	 * In hermitian spectra G(-u,-v) is set to the conjugate value as well.
 	 * @param u x-coordinate
 	 * @param v y-coordinate
 	 * @param amp amplitude
 	 * @param phi phase
 	 */
 	public void setValue(int u, int v, double amp, double phi) { 
-		m_g[v][u] = new Complex(amp*Math.cos(phi), amp*Math.sin(phi));
+		set(u, v, amp*Math.cos(phi), amp*Math.sin(phi));
+	}
+	
+	private void set(int u, int v, double re, double im) {
+		m_version++;
+		if (isStored(u, v)) {
+			final int i = index(u, v);
+			m_re[i] = re;
+			m_im[i] = im;
+			if (m_hermitian && (u == 0 || 2*u == m_spectrumWidth)) {
+				// the conjugate is stored in the same column
+				final int j = ((m_spectrumHeight - v)%m_spectrumHeight)*m_stride + u;
+				m_re[j] = re;
+				m_im[j] = -im;
+			}
+		} else {
+			set(m_spectrumWidth - u, (m_spectrumHeight - v)%m_spectrumHeight, re, -im);
+		}
+	}
+	
+	/**
+	 * Returns the spectrum as array of complex numbers
+	 * @return new complex numbers
+	 */
+	public Complex[][] toComplex() {
+		Complex[][] g = new Complex[m_spectrumHeight][m_spectrumWidth];
+		
+		Parallel.For(0, m_spectrumHeight, v -> {
+			for (int u = 0; u < m_spectrumWidth; u++) {
+				g[v][u] = getValue(u, v);
+			}
+		});
+		return g;
 	}
 	
 	/**
@@ -121,13 +287,18 @@ public class FrequencyDomain implements Cloneable {
 	public double meanPower() {
 		double[] sum = new double[1];
 		
-		Parallel.For(0, m_g.length, 
+		Parallel.For(0, m_spectrumHeight, 
 			// creator
 			() -> new double[1],
 			// loop body
 			(v, s) -> {
-				for (int u = 0; u < m_g[v].length; u++) {
-					s[0] += m_g[v][u].abs2();
+				final int pos = v*m_stride;
+				
+				for (int u = 0; u < m_stride; u++) {
+					final int i = pos + u;
+					// stored columns with a conjugate in the missing columns count twice
+					final int weight = (m_hermitian && u > 0 && 2*u < m_spectrumWidth) ? 2 : 1;
+					s[0] += weight*(m_re[i]*m_re[i] + m_im[i]*m_im[i]);
 				}
 			},
 			// reducer
@@ -143,148 +314,141 @@ public class FrequencyDomain implements Cloneable {
 		return new FrequencyDomain(this);
 	}
 
+	/**
+	 * Returns a centered view of this spectrum (fftshift) in O(1): no data is copied
+	 * @return view with the origin at (w/2, h/2)
+	 */
+	public ShiftedSpectrum shifted() {
+		return new ShiftedSpectrum(this);
+	}
+
 	/**	
 	 * Swap quadrants B and D and A and C  
 	 * so the power spectrum origin is at the center.
-	<pre>
-	    B A
-	    C D
-	</pre>
-	 * B.w = ceil(w/2) = w1
-	 * B.h = ceil(h/2) = h1
-	 * D.w = floor(w/2) = w2
-	 * D.h = floor(h/2) = h2
-	 * @return specturm with swapped quadrants
+	 * This materializes shifted(): prefer the view if no physical copy is needed.
+	 * @return full spectrum with swapped quadrants
 	 */
 	public FrequencyDomain swapQuadrants() {
-		final int w = getSpectrumWidth();
-		final int h = getSpectrumHeight();
-		FrequencyDomain fd = new FrequencyDomain();
-		fd.m_width = m_width;
-		fd.m_height = m_height;
-		fd.m_depth = m_depth;
-		fd.m_palette = m_palette;
-		fd.m_powerScale = m_powerScale;
-		fd.m_min = m_min;
-		fd.m_g = new Complex[h][w];
-		
-		final int w2 = w/2,  w1 = w - w2;
-		final int h2 = h/2, h1 = h - h2;
-
-		Parallel.For(0, h2, v -> {
-			final int h1v = h1 + v;
-			final int h2v = h2 + v;
-			
-			for(int u = 0; u < w2; u++) {
-				fd.m_g[v][u] = m_g[h1v][w1 + u];
-				fd.m_g[v][w2 + u] = m_g[h1v][u];
-				fd.m_g[h2v][u] = m_g[v][w1 + u];
-				fd.m_g[h2v][w2 + u] = m_g[v][u];
-			}
-		});
-		if (h1 != h2) {
-			final int h22 = h2 << 1;
-			for(int u = 0; u < w2; u++) {
-				fd.m_g[h22][u] = m_g[h2][w1 + u];
-				fd.m_g[h22][w2 + u] = m_g[h2][u];
-			}
-		}
-		if (w1 != w2) {
-			final int w22 = w2 << 1;
-			for(int v = 0; v < h2; v++) {
-				fd.m_g[v][w22] = m_g[h1 + v][w2];
-				fd.m_g[h2 + v][w22] = m_g[v][w2];
-			}
-			if (h1 != h2) {
-				final int h22 = h2 << 1;
-				fd.m_g[h22][w22] = m_g[h2][w2];
-			}
-		}
-		
-		return fd;
+		return shifted().materialize();
 	}
 	
 	public void multiply(int u, int v, double d) {
-		m_g[v][u].multiply(d);
+		final int i = index(u, v);
+		m_re[i] *= d;
+		m_im[i] *= d;
+		m_version++;
 	}
 	
 	public void multiply(double d) {
-		Parallel.For(0, m_g.length, v -> {
-			for(int u = 0; u < m_g[v].length; u++) {
-				m_g[v][u].multiply(d);
+		m_version++;
+		Parallel.For(0, m_spectrumHeight, v -> {
+			final int end = (v + 1)*m_stride;
+			
+			for (int i = v*m_stride; i < end; i++) {
+				m_re[i] *= d;
+				m_im[i] *= d;
 			}
 		});
 	}
 	
-	public void multiply(FrequencyDomain fd) {
-		assert m_g.length == fd.m_g.length;
+	/**
+	 * Applies a frequency filter in place: one parallel pass over the stored coefficients
+	 * @param f
+	 */
+	public void filter(FrequencyFilter f) {
+		final SpectralExpression.Filter g = f.bind(this);
 		
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				m_g[v][u].multiply(fd.m_g[v][u]);
-			}
+		m_version++;
+		Parallel.For(0, m_spectrumHeight, v -> {
+			g.multiplyRow(v, m_re, m_im, v*m_stride, m_stride);
 		});
 	}
+	
+	public void multiply(FrequencyDomain fd) {
+		assert m_re.length == fd.m_re.length && m_hermitian == fd.m_hermitian;
+		m_version++;
+		mul(this, fd, this);
+	}
 
 	public FrequencyDomain mul(double d) {
 		FrequencyDomain fd = new FrequencyDomain(this, true);
 		
-		Parallel.For(0, m_g.length, v -> {
-			for(int u = 0; u < m_g[v].length; u++) {
-				fd.m_g[v][u] = m_g[v][u].mul(d);
+		Parallel.For(0, m_spectrumHeight, v -> {
+			final int end = (v + 1)*m_stride;
+			
+			for (int i = v*m_stride; i < end; i++) {
+				fd.m_re[i] = m_re[i]*d;
+				fd.m_im[i] = m_im[i]*d;
 			}
 		});
 		return fd;
 	}
 	
 	public FrequencyDomain mul(FrequencyDomain fd2) {
-		assert m_g.length == fd2.m_g.length;
+		assert m_re.length == fd2.m_re.length && m_hermitian == fd2.m_hermitian;
 		FrequencyDomain fd = new FrequencyDomain(this, true);
 		
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd2.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				fd.m_g[v][u] = m_g[v][u].mul(fd2.m_g[v][u]);
-			}
-		});
+		mul(this, fd2, fd);
 		return fd;
 	}
 
 	public void divide(FrequencyDomain fd) {
-		assert m_g.length == fd.m_g.length;
-
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				if (fd.m_g[v][u].abs2() == 0) {
-					// division by zero
-					m_g[v][u].m_re = 0;
-					m_g[v][u].m_im = 0;
-				} else {
-					m_g[v][u].divide(fd.m_g[v][u]);
-				}
-			}
-		});
+		assert m_re.length == fd.m_re.length && m_hermitian == fd.m_hermitian;
+		m_version++;
+		div(this, fd, this);
 	}
 		
 	public FrequencyDomain div(FrequencyDomain fd2) {
-		assert m_g.length == fd2.m_g.length;
+		assert m_re.length == fd2.m_re.length && m_hermitian == fd2.m_hermitian;
 		FrequencyDomain fd = new FrequencyDomain(this, true);
 		
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd2.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				if (fd2.m_g[v][u].abs2() == 0) {
+		div(this, fd2, fd);
+		return fd;
+	}
+	
+	/**
+	 * Element-wise complex multiplication: out = a*b; out may be a or b
+	 */
+	private static void mul(FrequencyDomain a, FrequencyDomain b, FrequencyDomain out) {
+		final int w = a.m_stride;
+		
+		Parallel.For(0, a.m_spectrumHeight, v -> {
+			final int end = (v + 1)*w;
+			
+			for (int i = v*w; i < end; i++) {
+				final double re = a.m_re[i]*b.m_re[i] - a.m_im[i]*b.m_im[i];
+				final double im = a.m_re[i]*b.m_im[i] + a.m_im[i]*b.m_re[i];
+				out.m_re[i] = re;
+				out.m_im[i] = im;
+			}
+		});
+	}
+		
+	/**
+	 * Element-wise complex division: out = a/b; out may be a or b.
+	 * Division by zero results in zero.
+	 */
+	private static void div(FrequencyDomain a, FrequencyDomain b, FrequencyDomain out) {
+		final int w = a.m_stride;
+		
+		Parallel.For(0, a.m_spectrumHeight, v -> {
+			final int end = (v + 1)*w;
+			
+			for (int i = v*w; i < end; i++) {
+				final double den = b.m_re[i]*b.m_re[i] + b.m_im[i]*b.m_im[i];
+				
+				if (den == 0) {
 					// division by zero
-					m_g[v][u].m_re = 0;
-					m_g[v][u].m_im = 0;
+					out.m_re[i] = 0;
+					out.m_im[i] = 0;
 				} else {
-					fd.m_g[v][u] = m_g[v][u].div(fd2.m_g[v][u]);
+					final double re = (a.m_re[i]*b.m_re[i] + a.m_im[i]*b.m_im[i])/den;
+					final double im = (a.m_im[i]*b.m_re[i] - a.m_re[i]*b.m_im[i])/den;
+					out.m_re[i] = re;
+					out.m_im[i] = im;
 				}
 			}
 		});
-		return fd;
 	}
 		
 	@Override
@@ -296,9 +460,11 @@ public class FrequencyDomain implements Cloneable {
 			if (m_powerScale != fd.m_powerScale) return false;
 			if (m_min != fd.m_min) return false;
 			if (m_palette != fd.m_palette) return false;
+			if (m_hermitian != fd.m_hermitian) return false;
 			for(int i = 0; i < m_height; i++) {
 				for(int j = 0; j < m_width; j++) {
-					if (!m_g[i][j].equals(fd.m_g[i][j])) 
+					final int k = index(j, i), l = fd.index(j, i);
+					if (m_re[k] != fd.m_re[l] || m_im[k] != fd.m_im[l]) 
 						return false;
 				}
 			}
@@ -0,0 +1,294 @@
+package utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Analytic frequency filters: ideal, Butterworth, Gaussian and sigmoid low- and high-pass filters,
+ * sigmoid band-pass and notch (band-stop) filters, and Wiener filters.
+ *
+ * Radial filters depend on the distance d = hypot(u, v) of the signed frequencies (u,v) to the origin.
+ * The distances are precomputed once per spectrum size and cached. Radial filters keep the DC coefficient (0,0),
+ * hence the mean intensity of the image is preserved.
+ *
+ * A filter is applied in one parallel pass over the stored coefficients, either in place by FrequencyDomain.filter
+ * or lazily by SpectralExpression.filter.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public abstract class FrequencyFilter {
+	public static final int CacheCapacity = 8;		// max number of cached distance tables
+	public static final double SigmoidWidth = 8;	// half width of a sigmoid band edge in units of its scale
+
+	private static final LinkedHashMap<Long, double[]> s_distances = new LinkedHashMap<Long, double[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, double[]> eldest) {
+			return size() > CacheCapacity;
+		}
+	};
+
+	/**
+	 * Binds this filter to spectra with the size and storage of layout
+	 * @param layout spectrum defining size and storage
+	 * @return filter of the stored coefficients
+	 */
+	public abstract SpectralExpression.Filter bind(FrequencyDomain layout);
+
+	/**
+	 * Ideal low-pass filter: gain 1 if d <= r, otherwise 0
+	 * @param r cutoff radius
+	 * @return
+	 */
+	public static FrequencyFilter idealLowPass(double r) {
+		return new Radial(d -> (d <= r) ? 1 : 0);
+	}
+
+	/**
+	 * Ideal high-pass filter: gain 0 if d <= r, otherwise 1
+	 * @param r cutoff radius
+	 * @return
+	 */
+	public static FrequencyFilter idealHighPass(double r) {
+		return new Radial(d -> (d <= r) ? 0 : 1);
+	}
+
+	/**
+	 * Butterworth low-pass filter: 1/(1 + (d/r)^(2*order))
+	 * @param r cutoff radius
+	 * @param order filter order
+	 * @return
+	 */
+	public static FrequencyFilter butterworthLowPass(double r, int order) {
+		return new Radial(d -> 1/(1 + Math.pow(d/r, 2*order)));
+	}
+
+	/**
+	 * Butterworth high-pass filter: 1/(1 + (r/d)^(2*order))
+	 * @param r cutoff radius
+	 * @param order filter order
+	 * @return
+	 */
+	public static FrequencyFilter butterworthHighPass(double r, int order) {
+		return new Radial(d -> 1/(1 + Math.pow(r/d, 2*order)));
+	}
+
+	/**
+	 * Gaussian low-pass filter: exp(-d^2/(2*sigma^2))
+	 * @param sigma standard deviation
+	 * @return
+	 */
+	public static FrequencyFilter gaussianLowPass(double sigma) {
+		final double f = -0.5/(sigma*sigma);
+		return new Radial(d -> Math.exp(f*d*d));
+	}
+
+	/**
+	 * Gaussian high-pass filter: 1 - exp(-d^2/(2*sigma^2))
+	 * @param sigma standard deviation
+	 * @return
+	 */
+	public static FrequencyFilter gaussianHighPass(double sigma) {
+		final double f = -0.5/(sigma*sigma);
+		return new Radial(d -> 1 - Math.exp(f*d*d));
+	}
+
+	/**
+	 * Low-pass filter with a sigmoid band edge: 1 - sigmoid((d - r)/scale).
+	 * The gain is exactly 1 if d <= r - SigmoidWidth*scale and exactly 0 if d >= r + SigmoidWidth*scale.
+	 * @param r cutoff radius
+	 * @param scale width of the band edge
+	 * @return
+	 */
+	public static FrequencyFilter sigmoidLowPass(double r, double scale) {
+		return new Radial(d -> lowEdge(d, r, scale));
+	}
+
+	/**
+	 * High-pass filter with a sigmoid band edge: sigmoid((d - r)/scale).
+	 * The gain is exactly 0 if d < r - SigmoidWidth*scale and exactly 1 if d >= r + SigmoidWidth*scale.
+	 * @param r cutoff radius
+	 * @param scale width of the band edge
+	 * @return
+	 */
+	public static FrequencyFilter sigmoidHighPass(double r, double scale) {
+		return new Radial(d -> highEdge(d, r, scale));
+	}
+
+	/**
+	 * Band-pass filter with sigmoid band edges: passes r1 <= d <= r2
+	 * @param r1 inner radius
+	 * @param r2 outer radius
+	 * @param scale width of the band edges
+	 * @return
+	 */
+	public static FrequencyFilter sigmoidBandPass(double r1, double r2, double scale) {
+		return new Radial(d -> highEdge(d, r1, scale)*lowEdge(d, r2, scale));
+	}
+
+	/**
+	 * Notch (band-stop) filter with sigmoid band edges: rejects r1 <= d <= r2
+	 * @param r1 inner radius
+	 * @param r2 outer radius
+	 * @param scale width of the band edges
+	 * @return
+	 */
+	public static FrequencyFilter sigmoidNotch(double r1, double r2, double scale) {
+		return new Radial(d -> 1 - highEdge(d, r1, scale)*lowEdge(d, r2, scale));
+	}
+
+	/**
+	 * Wiener filter of the transfer function h: |H|^2/(|H|^2 + k).
+	 * Applied to the raw inverse filtered spectrum G/H it results in the Wiener deconvolution G*conj(H)/(|H|^2 + k).
+	 * @param h transfer function: same size and storage as the filtered spectra
+	 * @param k noise to signal power ratio
+	 * @return
+	 */
+	public static FrequencyFilter wiener(FrequencyDomain h, double k) {
+		return new Wiener(h, k);
+	}
+
+	/**
+	 * Removes all cached distance tables
+	 */
+	public static void clearCache() {
+		synchronized(s_distances) {
+			s_distances.clear();
+		}
+	}
+
+	private static double lowEdge(double d, double r, double scale) {
+		final double w = SigmoidWidth*scale;
+
+		if (d <= r - w) return 1;
+		else if (d < r + w) return 1 - sigmoid((d - r)/scale);
+		else return 0;
+	}
+
+	private static double highEdge(double d, double r, double scale) {
+		final double w = SigmoidWidth*scale;
+
+		if (d < r - w) return 0;
+		else if (d < r + w) return sigmoid((d - r)/scale);
+		else return 1;
+	}
+
+	private static double sigmoid(double t) {
+		return 0.5 + Math.tanh(t/2)/2;
+	}
+
+	/**
+	 * Returns the cached distances of the stored coefficients to the origin in row-major order
+	 * @param w spectrum width
+	 * @param h spectrum height
+	 * @param stride number of stored columns
+	 * @return distances
+	 */
+	private static double[] distances(int w, int h, int stride) {
+		final Long key = ((long)w << 32) | ((long)h << 1) | ((stride == w) ? 0 : 1);
+		double[] dist;
+
+		synchronized(s_distances) {
+			dist = s_distances.get(key);
+		}
+		if (dist == null) {
+			final double[] table = new double[stride*h];
+
+			Parallel.For(0, h, v -> {
+				final int v2 = (v < h - h/2) ? v : v - h;
+				final int pos = v*stride;
+
+				for (int u = 0; u < stride; u++) {
+					final int u2 = (u < w - w/2) ? u : u - w;
+					table[pos + u] = Math.hypot(u2, v2);
+				}
+			});
+			synchronized(s_distances) {
+				dist = s_distances.putIfAbsent(key, table);
+			}
+			if (dist == null) dist = table;
+		}
+		return dist;
+	}
+
+	/**
+	 * Filter depending on the distance to the origin
+	 */
+	private static class Radial extends FrequencyFilter {
+		final DoubleUnaryOperator m_response;
+
+		Radial(DoubleUnaryOperator response) {
+			m_response = response;
+		}
+
+		@Override
+		public SpectralExpression.Filter bind(FrequencyDomain layout) {
+			final int stride = layout.getStride();
+			final double[] dist = distances(layout.getSpectrumWidth(), layout.getSpectrumHeight(), stride);
+
+			return new SpectralExpression.Filter() {
+				@Override
+				public double gain(int u, int v) {
+					return (u == 0 && v == 0) ? 1 : m_response.applyAsDouble(dist[v*stride + u]);
+				}
+
+				@Override
+				public void multiplyRow(int v, double[] re, double[] im, int offset, int n) {
+					final int pos = v*stride;
+
+					// the DC coefficient is kept
+					for (int u = (v == 0) ? 1 : 0; u < n; u++) {
+						final double g = m_response.applyAsDouble(dist[pos + u]);
+						re[offset + u] *= g;
+						im[offset + u] *= g;
+					}
+				}
+			};
+		}
+	}
+
+	private static class Wiener extends FrequencyFilter {
+		final FrequencyDomain m_h;
+		final double m_k;
+
+		Wiener(FrequencyDomain h, double k) {
+			m_h = h;
+			m_k = k;
+		}
+
+		@Override
+		public SpectralExpression.Filter bind(FrequencyDomain layout) {
+			assert layout.m_re.length == m_h.m_re.length && layout.isHermitian() == m_h.isHermitian() : "different spectra";
+			final int stride = layout.getStride();
+			final double[] hRe = m_h.m_re, hIm = m_h.m_im;
+
+			return new SpectralExpression.Filter() {
+				@Override
+				public double gain(int u, int v) {
+					final int i = v*stride + u;
+					return gain(hRe[i]*hRe[i] + hIm[i]*hIm[i]);
+				}
+
+				@Override
+				public void multiplyRow(int v, double[] re, double[] im, int offset, int n) {
+					final int pos = v*stride;
+
+					for (int u = 0; u < n; u++) {
+						final int i = pos + u;
+						final double g = gain(hRe[i]*hRe[i] + hIm[i]*hIm[i]);
+						re[offset + u] *= g;
+						im[offset + u] *= g;
+					}
+				}
+
+				private double gain(double p) {
+					final double den = p + m_k;
+					return (den == 0) ? 0 : p/den;
+				}
+			};
+		}
+	}
+}
@@ -3,10 +3,20 @@ package utils;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * Parallel for loop
- * 
+ * All loops are executed in a shared, lazily created fork-join pool.
+ * The pool size can be set by the system property picsi.parallelism or by setParallelism.
+ * Loop ranges are split recursively and only as long as other workers are idle (work stealing).
+ * Ranges not larger than the grain size are executed sequentially in the calling thread.
+ *
+ * The first exception thrown in a loop body stops the remaining iterations and is rethrown
+ * in the calling thread. Loops executed within a Context can be cancelled, report their
+ * progress and stop at a deadline.
+ *
  * @author Christoph Stamm
  *
  */
@@ -14,29 +24,264 @@ public class Parallel {
 	public static interface IntLoopBody {
 	    void run(int i);
 	}
-	
+
 	public static interface LoopBody<T> {
 	    void run(T i);
 	}
 
+	public static interface LocalLoopBody<T> {
+	    void run(int i, T local);
+	}
+
 	public static interface RedDataCreator<T> {
 		T run();
 	}
-	
+
 	public static interface RedLoopBody<T> {
 	    void run(int i, T data);
 	}
-	
+
 	public static interface Reducer<T> {
 	    void run(T data);
 	}
-	
-	private static class ReductionData<T> {
-		Future<?> future;
-		T data;
+
+	public static interface TileBody {
+		void run(int u0, int v0, int u1, int v1);
+	}
+
+	public static interface ProgressListener {
+		/**
+		 * Is called by worker threads after a chunk of iterations of an outermost loop has been completed
+		 * @param completed total number of completed iterations (e.g. rows or tiles) of all outermost loops of the context
+		 */
+		void progress(long completed);
+	}
+
+	/**
+	 * Execution context of parallel loops: cancellation token, progress reporting and optional deadline.
+	 * The context is used by all loops (including nested loops) started within Parallel.run(context, task).
+	 */
+	public static class Context {
+		private volatile boolean m_cancelled;
+		private final long m_deadline;		// System.nanoTime() based deadline, Long.MAX_VALUE = no deadline
+		private final ProgressListener m_listener;
+		private final AtomicLong m_completed = new AtomicLong();
+
+		/**
+		 * Creates a context without deadline and without progress listener
+		 */
+		public Context() {
+			this(0, null);
+		}
+
+		/**
+		 * @param timeout timeout in ms, 0 = no deadline
+		 * @param listener progress listener or null
+		 */
+		public Context(long timeout, ProgressListener listener) {
+			assert timeout >= 0 : "timeout must be non-negative: " + timeout;
+			m_deadline = (timeout > 0) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE;
+			m_listener = listener;
+		}
+
+		/**
+		 * Requests cancellation: all loops of this context stop as soon as possible
+		 * and throw a CancellationException. Can be called from any thread.
+		 */
+		public void cancel() {
+			m_cancelled = true;
+		}
+
+		/**
+		 * Returns true if the context has been cancelled or its deadline has passed
+		 * @return
+		 */
+		public boolean isCancelled() {
+			if (!m_cancelled && m_deadline != Long.MAX_VALUE && System.nanoTime() - m_deadline > 0) {
+				m_cancelled = true;
+			}
+			return m_cancelled;
+		}
+
+		/**
+		 * Returns the total number of completed iterations of all outermost loops
+		 * @return
+		 */
+		public long getCompleted() {
+			return m_completed.get();
+		}
+
+		private void completed(int n) {
+			final long c = m_completed.addAndGet(n);
+			if (m_listener != null) m_listener.progress(c);
+		}
+	}
+
+	/**
+	 * Per thread state: context and loop nesting depth
+	 */
+	private static class Frame {
+		Context context;
+		int depth;
+	}
+
+	/**
+	 * State of one running loop
+	 */
+	private static class LoopState {
+		final Context m_context;
+		final int m_depth;
+		volatile Throwable m_failure;
+
+		LoopState() {
+			Frame f = s_frame.get();
+			m_context = f.context;
+			m_depth = f.depth;
+		}
+
+		boolean isStopped() {
+			return m_failure != null || m_context != null && m_context.isCancelled();
+		}
+
+		/**
+		 * Executes the iterations [lo, hi) in the current thread
+		 */
+		void run(RangeBody body, int lo, int hi) {
+			if (isStopped()) return;
+
+			Frame f = s_frame.get();
+			final Context context = f.context;
+			final int depth = f.depth;
+
+			f.context = m_context;
+			f.depth = m_depth + 1;
+			try {
+				body.run(this, lo, hi);
+				if (m_context != null && m_depth == 0) m_context.completed(hi - lo);
+			} catch (Throwable e) {
+				if (m_failure == null) {
+					synchronized(this) {
+						if (m_failure == null) m_failure = e;
+					}
+				}
+			} finally {
+				f.context = context;
+				f.depth = depth;
+			}
+		}
+
+		/**
+		 * Rethrows the first failure or throws a CancellationException if the context has been cancelled
+		 */
+		void complete() {
+			final Throwable e = m_failure;
+
+			if (e instanceof RuntimeException) throw (RuntimeException)e;
+			if (e instanceof Error) throw (Error)e;
+			if (e != null) throw new CompletionException(e);
+			if (m_context != null && m_context.isCancelled()) throw new CancellationException("parallel loop has been cancelled");
+		}
 	}
-	
+
 	static final int nCPU = Runtime.getRuntime().availableProcessors();
+	static final int OversplittingFactor = 8;	// number of chunks per worker used to compute the default grain size
+	static final int MaxSurplusTasks = 3;		// a task is only split if its worker has not more queued tasks
+	public static final int DefaultTileSize = 64; // 64x64 pixels of up to 32 bits fit into a 16 KB L1 cache block
+
+	private static volatile int s_parallelism = Math.max(1, Integer.getInteger("picsi.parallelism", nCPU));
+	private static volatile ForkJoinPool s_pool;
+	private static final ThreadLocal<Frame> s_frame = ThreadLocal.withInitial(Frame::new);
+
+	/**
+	 * Returns the shared worker pool. The pool is created at the first usage.
+	 * @return shared fork-join pool
+	 */
+	public static ForkJoinPool getPool() {
+		ForkJoinPool pool = s_pool;
+
+		if (pool == null) {
+			synchronized(Parallel.class) {
+				pool = s_pool;
+				if (pool == null) {
+					s_pool = pool = new ForkJoinPool(s_parallelism);
+				}
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Returns the number of worker threads of the shared pool
+	 * @return
+	 */
+	public static int getParallelism() {
+		return s_parallelism;
+	}
+
+	/**
+	 * Sets the number of worker threads of the shared pool.
+	 * New loops use a new pool. The old pool is shut down as soon as it is quiescent,
+	 * hence loops running in other threads are finished in the old pool.
+	 * @param parallelism > 0
+	 */
+	public static void setParallelism(int parallelism) {
+		assert parallelism > 0 : "parallelism must be positive: " + parallelism;
+		ForkJoinPool old;
+
+		synchronized(Parallel.class) {
+			if (parallelism == s_parallelism) return;
+			s_parallelism = parallelism;
+			old = s_pool;
+			s_pool = null;
+		}
+		if (old != null) {
+			Thread t = new Thread(() -> {
+				old.awaitQuiescence(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+				old.shutdown();
+			}, "Parallel pool shutdown");
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Executes task in the calling thread. All parallel loops started by task use the given context.
+	 * @param context execution context
+	 * @param task
+	 * @return result of task
+	 * @throws CancellationException if a loop has been cancelled or its deadline has passed
+	 */
+	public static <T> T run(Context context, Supplier<T> task) {
+		Frame f = s_frame.get();
+		final Context prevContext = f.context;
+		final int prevDepth = f.depth;
+
+		f.context = context;
+		f.depth = 0;
+		try {
+			return task.get();
+		} finally {
+			f.context = prevContext;
+			f.depth = prevDepth;
+		}
+	}
+
+	/**
+	 * Returns the context of the calling thread or null
+	 * @return
+	 */
+	public static Context getContext() {
+		return s_frame.get().context;
+	}
+
+	/**
+	 * Throws a CancellationException if the context of the calling thread has been cancelled.
+	 * Can be used in long running sequential code.
+	 */
+	public static void checkCancelled() {
+		final Context context = getContext();
+		if (context != null && context.isCancelled()) throw new CancellationException("parallel loop has been cancelled");
+	}
 
 	/**
 	 * Parallel for each: executes the loopBody for each item in the collection
@@ -44,21 +289,12 @@ public class Parallel {
 	 * @param loopBody
 	 */
 	public static <T> void forEach(Iterable <T> collection, final LoopBody<T> loopBody) {
-	    ExecutorService executor = Executors.newFixedThreadPool(nCPU);
-	    List<Future<?>> futures  = new ArrayList<Future<?>>(nCPU);
+	    List<T> items = new ArrayList<T>();
 
 	    for (final T param : collection) {
-	    	futures.add(executor.submit(() -> loopBody.run(param) ));
+	    	items.add(param);
 	    }
-
-        for (Future<?> f : futures) {
-        	try { 
-        		f.get();
-		    } catch (InterruptedException | ExecutionException e) { 
-		    	System.out.println(e); 
-		    }
-        }
-	    executor.shutdown();     
+	    For(0, items.size(), 1, 1, i -> loopBody.run(items.get(i)));
 	}
 
 	/**
@@ -79,62 +315,49 @@ public class Parallel {
 	 * @param loopBody
 	 */
 	public static void For(int start, int stop, int delta, final IntLoopBody loopBody) {
-		assert delta != 0 : "delta must be not 0: " + delta;
-		
-		if (start == stop) return;
-		
-		ExecutorService executor = null;
-		List<Future<?>> futures = null;
-		
-		if (start < stop) {
-			assert delta > 0 : "delta must be positive: " + delta;
-		    int chunkSize = (stop - start + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize += delta - rest;
-	        final int nThreads = (stop - start + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        futures  = new ArrayList<Future<?>>(nThreads);
-	
-	        for (int i=start; i < stop; ) {
-	            final int iStart = i;
-	            i += chunkSize;
-	            final int iStop = (i < stop) ? i : stop;
-	            
-		        futures.add(executor.submit(() -> {
-	            	for (int j = iStart; j < iStop; j += delta) 
-	            		loopBody.run(j);
-	            }));     
-		    }
-		} else {
-			// start > stop
-			assert delta < 0 : "delta must be negative: " + delta;
-		    int chunkSize = (start - stop + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize -= delta + rest;
-	        final int nThreads = (start - stop + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        futures  = new ArrayList<Future<?>>(nThreads);
-	
-	        for (int i=start; i > stop; ) {
-	            final int iStart = i;
-	            i -= chunkSize;
-	            final int iStop = (i > stop) ? i : stop;
-	            
-		        futures.add(executor.submit(() -> {
-	            	for (int j = iStart; j > iStop; j += delta) 
-	            		loopBody.run(j);
-	            }));  
-	        }
-		}
-
-        for (Future<?> f : futures) {
-        	try { 
-        		f.get();
-		    } catch (InterruptedException | ExecutionException e) { 
-		    	System.out.println(e); 
-		    }
-        }
-	    executor.shutdown();     
+		For(start, stop, delta, defaultGrainSize(iterations(start, stop, delta)), loopBody);
+	}
+
+	/**
+	 * Parallel for: executes the loopBody for values in the semi-open range [start, stop) with step size delta.
+	 * Use a large grain size for cheap loop bodies.
+	 * @param start != stop
+	 * @param stop
+	 * @param delta if start < stop then delta has to be positive, if start > stop then delta must be negative
+	 * @param grainSize minimal number of iterations executed by one task (> 0)
+	 * @param loopBody
+	 */
+	public static void For(int start, int stop, int delta, int grainSize, final IntLoopBody loopBody) {
+		final int n = iterations(start, stop, delta);
+		assert grainSize > 0 : "grain size must be positive: " + grainSize;
+
+		if (n <= 0) return;
+		execute(n, grainSize, (state, lo, hi) -> {
+			for (int k = lo; k < hi && !state.isStopped(); k++) {
+				loopBody.run(start + k*delta);
+			}
+		});
+	}
+
+	/**
+	 * Parallel for: executes the loopBody for each int value in the semi-open range [start, stop).
+	 * Each task creates its own local data, e.g. scratch buffers, which is passed to all iterations of the task.
+	 * @param start < stop
+	 * @param stop
+	 * @param local creates the local data of a task
+	 * @param loopBody
+	 */
+	public static <T> void For(int start, int stop, final Supplier<T> local, final LocalLoopBody<T> loopBody) {
+		final int n = iterations(start, stop, 1);
+
+		if (n <= 0) return;
+		execute(n, defaultGrainSize(n), (state, lo, hi) -> {
+			final T data = local.get();
+
+			for (int k = lo; k < hi && !state.isStopped(); k++) {
+				loopBody.run(start + k, data);
+			}
+		});
 	}
 
 	/**
@@ -149,7 +372,7 @@ public class Parallel {
 	public static <T> void For(int start, int stop, final RedDataCreator<T> creator, final RedLoopBody<T> loopBody, final Reducer<T> reducer) {
 		For(start, stop, 1, creator, loopBody, reducer);
 	}
-	
+
 	/**
 	 * Parallel for: executes the loopBody for each int value in the semi-open range [start, stop) with step size delta
 	 * and performs a reduction.
@@ -161,74 +384,198 @@ public class Parallel {
 	 * @param reducer computes reduction of temporary reduction data and stores it in external result
 	 */
 	public static <T> void For(int start, int stop, int delta, final RedDataCreator<T> creator, final RedLoopBody<T> loopBody, final Reducer<T> reducer) {
+		For(start, stop, delta, defaultGrainSize(iterations(start, stop, delta)), creator, loopBody, reducer);
+	}
+
+	/**
+	 * Parallel for: executes the loopBody for each int value in the semi-open range [start, stop) with step size delta
+	 * and performs a reduction. The range is divided into chunks of grainSize iterations, each chunk creates its own 
+	 * temporary reduction data. The reducer is called sequentially in the calling thread in the order of the chunks, 
+	 * hence floating-point reductions are reproducible for the same grain size.
+	 * @param start != stop
+	 * @param stop
+	 * @param delta if start < stop then delta has to be positive, if start > stop then delta must be negative
+	 * @param grainSize minimal number of iterations executed by one task (> 0)
+	 * @param creator initializes temporary reduction data
+	 * @param loopBody
+	 * @param reducer computes reduction of temporary reduction data and stores it in external result
+	 */
+	public static <T> void For(int start, int stop, int delta, int grainSize, final RedDataCreator<T> creator, final RedLoopBody<T> loopBody, final Reducer<T> reducer) {
+		final int n = iterations(start, stop, delta);
+		assert grainSize > 0 : "grain size must be positive: " + grainSize;
+
+		if (n <= 0) return;
+
+		@SuppressWarnings("unchecked")
+		final T[] redData = (T[])new Object[(n + grainSize - 1)/grainSize];
+
+		// tasks consist of whole chunks
+		execute(n, grainSize, (state, lo, hi) -> {
+			for (int c = lo; c < hi && !state.isStopped(); c += grainSize) {
+				final T data = creator.run();
+				final int end = Math.min(c + grainSize, hi);
+
+				for (int k = c; k < end && !state.isStopped(); k++) {
+					loopBody.run(start + k*delta, data);
+				}
+				redData[c/grainSize] = data;
+			}
+		});
+
+		// left to right: the result doesn't depend on the scheduling
+		for (T data : redData) {
+			if (data != null) reducer.run(data);
+		}
+	}
+
+	/**
+	 * Parallel 2D loop: executes the tileBody for each tile of size DefaultTileSize x DefaultTileSize
+	 * covering the image area [0, width) x [0, height)
+	 * @param width image width
+	 * @param height image height
+	 * @param tileBody is called with the semi-open tile area [u0, u1) x [v0, v1)
+	 */
+	public static void ForTiles(int width, int height, final TileBody tileBody) {
+		ForTiles(width, height, DefaultTileSize, DefaultTileSize, tileBody);
+	}
+
+	/**
+	 * Parallel 2D loop: executes the tileBody for each tile of size tileW x tileH
+	 * covering the image area [0, width) x [0, height).
+	 * Tiles are enumerated row by row. Use a tile width of a multiple of 8 if the
+	 * tile body writes pixels of bit depth less than 8, so that tiles don't share bytes.
+	 * @param width image width
+	 * @param height image height
+	 * @param tileW tile width > 0
+	 * @param tileH tile height > 0
+	 * @param tileBody is called with the semi-open tile area [u0, u1) x [v0, v1)
+	 */
+	public static void ForTiles(int width, int height, int tileW, int tileH, final TileBody tileBody) {
+		assert tileW > 0 && tileH > 0 : "wrong tile size: " + tileW + " x " + tileH;
+
+		final int nx = (width + tileW - 1)/tileW;
+		final int ny = (height + tileH - 1)/tileH;
+
+		For(0, nx*ny, t -> {
+			final int u0 = (t%nx)*tileW;
+			final int v0 = (t/nx)*tileH;
+			tileBody.run(u0, v0, Math.min(u0 + tileW, width), Math.min(v0 + tileH, height));
+		});
+	}
+
+	/**
+	 * Returns the number of loop iterations
+	 * @param start
+	 * @param stop
+	 * @param delta
+	 * @return number of iterations
+	 */
+	private static int iterations(int start, int stop, int delta) {
 		assert delta != 0 : "delta must be not 0: " + delta;
-		
-		if (start == stop) return;
-		
-		ExecutorService executor = null;
-		List<ReductionData<T>> redData = null;
-		
+
 		if (start < stop) {
 			assert delta > 0 : "delta must be positive: " + delta;
-		    int chunkSize = (stop - start + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize += delta - rest;
-	        final int nThreads = (stop - start + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        redData  = new ArrayList<ReductionData<T>>(nThreads);
-	
-	        for (int i = start; i < stop; ) {
-	            final int iStart = i;
-	            i += chunkSize;
-	            final int iStop = (i < stop) ? i : stop;
-	            final ReductionData<T> rd = new ReductionData<T>();
-	                        
-	            rd.data = creator.run();
-		        rd.future = executor.submit(() -> {
-		            for (int j = iStart; j < iStop; j += delta) {
-		            	loopBody.run(j, rd.data);
-		            }
-		        });
-		        redData.add(rd);
-		    }
+			return (int)(((long)stop - start + delta - 1)/delta);
 		} else {
-			// start > stop
-			assert delta < 0 : "delta must be negative: " + delta;
-		    int chunkSize = (start - stop + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize -= delta + rest;
-	        final int nThreads = (start - stop + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        redData  = new ArrayList<ReductionData<T>>(nThreads);
-	
-	        for (int i = start; i > stop; ) {
-	            final int iStart = i;
-	            i -= chunkSize;
-	            final int iStop = (i > stop) ? i : stop;
-	            final ReductionData<T> rd = new ReductionData<T>();
-	                        
-	            rd.data = creator.run();
-		        rd.future = executor.submit(() -> {
-		            for (int j = iStart; j > iStop; j += delta) {
-		            	loopBody.run(j, rd.data);
-		            }
-		        });
-		        redData.add(rd);
-		    }
-		}
-
-        for (ReductionData<T> rd : redData) {
-        	try { 
-        		rd.future.get();
-        		if (rd.data != null) {
-        			reducer.run(rd.data);
-        		}
-		    } catch (InterruptedException | ExecutionException e) { 
-				e.printStackTrace();
-		    }
-        }
-	    executor.shutdown();     
+			assert start == stop || delta < 0 : "delta must be negative: " + delta;
+			return (int)(((long)start - stop - delta - 1)/-delta);
+		}
 	}
-}
 
+	/**
+	 * Returns a grain size producing a few chunks per worker
+	 * @param n number of iterations
+	 * @return
+	 */
+	private static int defaultGrainSize(int n) {
+		return Math.max(1, n/(OversplittingFactor*getParallelism()));
+	}
+
+	/**
+	 * Executes n iterations and waits for their completion.
+	 * Small ranges are executed in the calling thread. Nested loops are executed in the
+	 * current worker thread's pool, hence waiting workers help to execute pending tasks instead of blocking.
+	 * @param n number of iterations
+	 * @param grainSize
+	 * @param body
+	 */
+	private static void execute(int n, int grainSize, RangeBody body) {
+		final LoopState state = new LoopState();
+
+		if (n <= grainSize || getParallelism() == 1) {
+			// sequential fallback
+			state.run(body, 0, n);
+		} else {
+			final RangeTask task = new RangeTask(0, n, grainSize, state, body);
+
+			if (ForkJoinTask.inForkJoinPool()) {
+				task.invoke();
+			} else {
+				final ForkJoinPool pool = getPool();
+
+				try {
+					pool.invoke(task);
+				} catch (RejectedExecutionException e) {
+					// the pool has been replaced and shut down after this thread has got it
+					if (pool == s_pool) throw e;
+					getPool().invoke(task);
+				}
+			}
+		}
+		state.complete();
+	}
+
+	/**
+	 * Sequential execution of a semi-open range [lo, hi) of iteration indices
+	 */
+	private static interface RangeBody {
+		void run(LoopState state, int lo, int hi);
+	}
+
+	/**
+	 * Task executing a semi-open range [lo, hi) of iteration indices.
+	 * The range is split in halves as long as it is larger than the grain size and the
+	 * current worker has almost no queued tasks. The right halves are forked and can be stolen by idle workers.
+	 * Ranges are split at multiples of the grain size, hence they consist of whole chunks of grain size iterations.
+	 */
+	private static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int m_lo, m_hi, m_grainSize;
+		private final LoopState m_state;
+		private final RangeBody m_body;
+		private RangeTask m_next;	// forked sibling
+
+		RangeTask(int lo, int hi, int grainSize, LoopState state, RangeBody body) {
+			m_lo = lo;
+			m_hi = hi;
+			m_grainSize = grainSize;
+			m_state = state;
+			m_body = body;
+		}
+
+		@Override
+		protected void compute() {
+			int lo = m_lo, hi = m_hi;
+			RangeTask forked = null;
 
+			while (hi - lo > m_grainSize && getSurplusQueuedTaskCount() <= MaxSurplusTasks && !m_state.isStopped()) {
+				final int mid = lo + Math.max(1, ((hi - lo) >>> 1)/m_grainSize)*m_grainSize;
+				RangeTask right = new RangeTask(mid, hi, m_grainSize, m_state, m_body);
+				right.m_next = forked;
+				forked = right;
+				right.fork();
+				hi = mid;
+			}
+			m_state.run(m_body, lo, hi);
+			while (forked != null) {
+				if (forked.tryUnfork()) {
+					forked.compute();
+				} else {
+					forked.join();
+				}
+				forked = forked.m_next;
+			}
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Fast pixel access: reads and writes the pixel values of ImageData.data directly,
+ * without decoding depth, bit order and palette for each pixel as ImageData.getPixel/setPixel do.
+ * The pixel values are the same as those of ImageData.getPixel/setPixel.
+ *
+ * Specialized accessors exist for the bit depths of all Picsi image types:
+ * 1 bit (binary), 8 bits (gray and indexed), 24 bits (RGB) and 32 bits (gray32).
+ * Other bit depths are accessed by ImageData.getPixel/setPixel.
+ *
+ * Concurrent writes are only safe if different threads write different bytes,
+ * e.g. different rows or runs of 8 pixels in binary images.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public abstract class PixelAccess {
+	public final int m_width, m_height;	// image size
+	protected final ImageData m_imageData;
+	protected final byte[] m_data;
+	protected final int m_bytesPerLine;
+
+	protected PixelAccess(ImageData imageData) {
+		m_imageData = imageData;
+		m_width = imageData.width;
+		m_height = imageData.height;
+		m_data = imageData.data;
+		m_bytesPerLine = imageData.bytesPerLine;
+	}
+
+	/**
+	 * Creates the specialized pixel accessor for the given image
+	 * @param imageData
+	 * @return pixel accessor
+	 */
+	public static PixelAccess create(ImageData imageData) {
+		switch(imageData.depth) {
+		case 1:
+			return new Binary(imageData);
+		case 8:
+			return new Gray(imageData);
+		case 24:
+			return new RGB(imageData);
+		case 32:
+			return new Gray32(imageData);
+		default:
+			return new Generic(imageData);
+		}
+	}
+
+	/**
+	 * Returns the accessed image
+	 * @return
+	 */
+	public ImageData getImageData() {
+		return m_imageData;
+	}
+
+	/**
+	 * Returns true if (u,v) is inside the image
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return
+	 */
+	public boolean contains(int u, int v) {
+		return u >= 0 && v >= 0 && u < m_width && v < m_height;
+	}
+
+	/**
+	 * Returns the pixel value at position (u,v)
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return pixel value
+	 */
+	public abstract int getPixel(int u, int v);
+
+	/**
+	 * Sets the pixel value at position (u,v)
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @param pixel pixel value: only the lowest depth bits are used
+	 */
+	public abstract void setPixel(int u, int v, int pixel);
+
+	/**
+	 * Reads n pixel values of row v starting at column u
+	 * @param u start column
+	 * @param v row
+	 * @param n number of pixels
+	 * @param pixels output array
+	 * @param offset start index in pixels
+	 */
+	public void getPixels(int u, int v, int n, int[] pixels, int offset) {
+		for (int i = 0; i < n; i++) {
+			pixels[offset + i] = getPixel(u + i, v);
+		}
+	}
+
+	/**
+	 * Writes n pixel values to row v starting at column u
+	 * @param u start column
+	 * @param v row
+	 * @param n number of pixels
+	 * @param pixels input array
+	 * @param offset start index in pixels
+	 */
+	public void setPixels(int u, int v, int n, int[] pixels, int offset) {
+		for (int i = 0; i < n; i++) {
+			setPixel(u + i, v, pixels[offset + i]);
+		}
+	}
+
+	/**
+	 * 1 bit per pixel, most significant bit first (bit order of ImageData)
+	 */
+	public static final class Binary extends PixelAccess {
+		public Binary(ImageData imageData) {
+			super(imageData);
+			assert imageData.depth == 1 : "wrong image type";
+		}
+
+		@Override
+		public int getPixel(int u, int v) {
+			return (m_data[v*m_bytesPerLine + (u >> 3)] >> (7 - (u & 7))) & 1;
+		}
+
+		@Override
+		public void setPixel(int u, int v, int pixel) {
+			final int i = v*m_bytesPerLine + (u >> 3);
+			final int mask = 0x80 >> (u & 7);
+
+			if ((pixel & 1) != 0) {
+				m_data[i] |= mask;
+			} else {
+				m_data[i] &= ~mask;
+			}
+		}
+	}
+
+	/**
+	 * 8 bits per pixel: grayscale and indexed images
+	 */
+	public static final class Gray extends PixelAccess {
+		public Gray(ImageData imageData) {
+			super(imageData);
+			assert imageData.depth == 8 : "wrong image type";
+		}
+
+		@Override
+		public int getPixel(int u, int v) {
+			return m_data[v*m_bytesPerLine + u] & 0xFF;
+		}
+
+		@Override
+		public void setPixel(int u, int v, int pixel) {
+			m_data[v*m_bytesPerLine + u] = (byte)pixel;
+		}
+
+		@Override
+		public void getPixels(int u, int v, int n, int[] pixels, int offset) {
+			int i = v*m_bytesPerLine + u;
+
+			for (int j = offset; j < offset + n; j++) {
+				pixels[j] = m_data[i++] & 0xFF;
+			}
+		}
+
+		@Override
+		public void setPixels(int u, int v, int n, int[] pixels, int offset) {
+			int i = v*m_bytesPerLine + u;
+
+			for (int j = offset; j < offset + n; j++) {
+				m_data[i++] = (byte)pixels[j];
+			}
+		}
+	}
+
+	/**
+	 * 24 bits per pixel: direct color images, first byte is the most significant byte
+	 */
+	public static final class RGB extends PixelAccess {
+		public RGB(ImageData imageData) {
+			super(imageData);
+			assert imageData.depth == 24 : "wrong image type";
+		}
+
+		@Override
+		public int getPixel(int u, int v) {
+			final int i = v*m_bytesPerLine + 3*u;
+			return ((m_data[i] & 0xFF) << 16) | ((m_data[i + 1] & 0xFF) << 8) | (m_data[i + 2] & 0xFF);
+		}
+
+		@Override
+		public void setPixel(int u, int v, int pixel) {
+			final int i = v*m_bytesPerLine + 3*u;
+			m_data[i] = (byte)(pixel >> 16);
+			m_data[i + 1] = (byte)(pixel >> 8);
+			m_data[i + 2] = (byte)pixel;
+		}
+
+		@Override
+		public void getPixels(int u, int v, int n, int[] pixels, int offset) {
+			int i = v*m_bytesPerLine + 3*u;
+
+			for (int j = offset; j < offset + n; j++, i += 3) {
+				pixels[j] = ((m_data[i] & 0xFF) << 16) | ((m_data[i + 1] & 0xFF) << 8) | (m_data[i + 2] & 0xFF);
+			}
+		}
+
+		@Override
+		public void setPixels(int u, int v, int n, int[] pixels, int offset) {
+			int i = v*m_bytesPerLine + 3*u;
+
+			for (int j = offset; j < offset + n; j++, i += 3) {
+				final int pixel = pixels[j];
+				m_data[i] = (byte)(pixel >> 16);
+				m_data[i + 1] = (byte)(pixel >> 8);
+				m_data[i + 2] = (byte)pixel;
+			}
+		}
+	}
+
+	/**
+	 * 32 bits per pixel, first byte is the most significant byte
+	 */
+	public static final class Gray32 extends PixelAccess {
+		public Gray32(ImageData imageData) {
+			super(imageData);
+			assert imageData.depth == 32 : "wrong image type";
+		}
+
+		@Override
+		public int getPixel(int u, int v) {
+			final int i = v*m_bytesPerLine + 4*u;
+			return (m_data[i] << 24) | ((m_data[i + 1] & 0xFF) << 16) | ((m_data[i + 2] & 0xFF) << 8) | (m_data[i + 3] & 0xFF);
+		}
+
+		@Override
+		public void setPixel(int u, int v, int pixel) {
+			final int i = v*m_bytesPerLine + 4*u;
+			m_data[i] = (byte)(pixel >> 24);
+			m_data[i + 1] = (byte)(pixel >> 16);
+			m_data[i + 2] = (byte)(pixel >> 8);
+			m_data[i + 3] = (byte)pixel;
+		}
+	}
+
+	/**
+	 * Any other bit depth: uses ImageData.getPixel/setPixel
+	 */
+	public static final class Generic extends PixelAccess {
+		public Generic(ImageData imageData) {
+			super(imageData);
+		}
+
+		@Override
+		public int getPixel(int u, int v) {
+			return m_imageData.getPixel(u, v);
+		}
+
+		@Override
+		public void setPixel(int u, int v, int pixel) {
+			m_imageData.setPixel(u, v, (m_imageData.depth < 32) ? pixel & ((1 << m_imageData.depth) - 1) : pixel);
+		}
+	}
+}
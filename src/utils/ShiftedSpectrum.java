@@ -0,0 +1,158 @@
+package utils;
+
+/**
+ * Centered view of a spectrum (fftshift) without copying data: the origin is at (w/2, h/2).
+ * Coefficient (x,y) of the view is coefficient (getU(x), getV(y)) of the spectrum.
+ * Changes of the spectrum are visible in the view and vice versa.
+ *
+ * The quadrants are only swapped physically by materialize().
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class ShiftedSpectrum {
+	private final FrequencyDomain m_fd;
+	private final int m_w, m_h;		// spectrum size
+
+	/**
+	 * Creates a centered view of fd in O(1)
+	 * @param fd
+	 */
+	public ShiftedSpectrum(FrequencyDomain fd) {
+		m_fd = fd;
+		m_w = fd.getSpectrumWidth();
+		m_h = fd.getSpectrumHeight();
+	}
+
+	/**
+	 * Returns the position of x after shifting the origin 0 to n/2 (fftshift)
+	 * @param x position in [0, n)
+	 * @param n size
+	 * @return shifted position in [0, n)
+	 */
+	public static int fftshift(int x, int n) {
+		x += n/2;
+		return (x < n) ? x : x - n;
+	}
+
+	/**
+	 * Returns the position of x after shifting the origin n/2 to 0 (ifftshift): inverse of fftshift
+	 * @param x position in [0, n)
+	 * @param n size
+	 * @return shifted position in [0, n)
+	 */
+	public static int ifftshift(int x, int n) {
+		x += n - n/2;
+		return (x < n) ? x : x - n;
+	}
+
+	public FrequencyDomain getSpectrum() { return m_fd; }
+
+	/**
+	 * Returns the spectrum x-coordinate of view column x
+	 * @param x view x-coordinate
+	 * @return u
+	 */
+	public int getU(int x) {
+		return ifftshift(x, m_w);
+	}
+
+	/**
+	 * Returns the spectrum y-coordinate of view row y
+	 * @param y view y-coordinate
+	 * @return v
+	 */
+	public int getV(int y) {
+		return ifftshift(y, m_h);
+	}
+
+	/**
+	 * Returns the view x-coordinate of spectrum column u
+	 * @param u
+	 * @return x
+	 */
+	public int getX(int u) {
+		return fftshift(u, m_w);
+	}
+
+	/**
+	 * Returns the view y-coordinate of spectrum row v
+	 * @param v
+	 * @return y
+	 */
+	public int getY(int v) {
+		return fftshift(v, m_h);
+	}
+
+	/**
+	 * Returns the array index of view coefficient (x,y) in the spectrum
+	 * @param x
+	 * @param y
+	 * @return index in m_re and m_im of the spectrum
+	 */
+	public int index(int x, int y) {
+		return m_fd.index(getU(x), getV(y));
+	}
+
+	public boolean isStored(int x, int y) {
+		return m_fd.isStored(getU(x), getV(y));
+	}
+
+	public double getAmplitude(int x, int y) {
+		return m_fd.getAmplitude(getU(x), getV(y));
+	}
+
+	public double getPhase(int x, int y) {
+		return m_fd.getPhase(getU(x), getV(y));
+	}
+
+	public Complex getValue(int x, int y) {
+		return m_fd.getValue(getU(x), getV(y));
+	}
+
+	public void setValue(int x, int y, Complex c) {
+		m_fd.setValue(getU(x), getV(y), c);
+	}
+
+	public void setValue(int x, int y, double amp, double phi) {
+		m_fd.setValue(getU(x), getV(y), amp, phi);
+	}
+
+	public void multiply(int x, int y, double d) {
+		m_fd.multiply(getU(x), getV(y), d);
+	}
+
+	/**
+	 * Returns a full spectrum with physically swapped quadrants B and D and A and C,
+	 * so the origin is at the center.
+	<pre>
+	    B A
+	    C D
+	</pre>
+	 * B.w = ceil(w/2) = w1
+	 * B.h = ceil(h/2) = h1
+	 * D.w = floor(w/2) = w2
+	 * D.h = floor(h/2) = h2
+	 * @return new spectrum with swapped quadrants
+	 */
+	public FrequencyDomain materialize() {
+		final FrequencyDomain src = m_fd.toFull();
+		final int w = m_w;
+		final FrequencyDomain fd = new FrequencyDomain(src, true);
+
+		final int w2 = w/2,  w1 = w - w2;
+		final int h2 = m_h/2, h1 = m_h - h2;
+
+		// output row v is input row (v + h1) mod h, output column u is input column (u + w1) mod w
+		Parallel.For(0, m_h, v -> {
+			final int s = ((v < h2) ? v + h1 : v - h2)*w;
+			final int d = v*w;
+
+			System.arraycopy(src.m_re, s + w1, fd.m_re, d, w2);
+			System.arraycopy(src.m_re, s, fd.m_re, d + w2, w1);
+			System.arraycopy(src.m_im, s + w1, fd.m_im, d, w2);
+			System.arraycopy(src.m_im, s, fd.m_im, d + w2, w1);
+		});
+		return fd;
+	}
+}
@@ -0,0 +1,330 @@
+package utils;
+
+/**
+ * Lazily evaluated element-wise expression of spectra, e.g.
+ * SpectralExpression.of(fd1).mul(fd2).div(fd3).scale(0.5).filter(lowPass)
+ *
+ * Building an expression doesn't compute anything. The whole expression is evaluated once,
+ * row by row and in parallel, directly into the output buffers: no intermediate spectra are created.
+ * All spectra of an expression must have the same size and storage (hermitian or full).
+ *
+ * Filters and masks are applied to the stored coefficients. In hermitian spectra the stored coefficient
+ * represents its conjugate as well, hence filters must be symmetric: gain(u,v) = gain(-u,-v).
+ *
+ * @author Christoph Stamm
+ *
+ */
+public abstract class SpectralExpression {
+	/**
+	 * Frequency filter
+	 */
+	public static interface Filter {
+		/**
+		 * @param u x-coordinate in [0, spectrum width)
+		 * @param v y-coordinate in [0, spectrum height)
+		 * @return gain of coefficient (u,v)
+		 */
+		double gain(int u, int v);
+
+		/**
+		 * Multiplies the stored coefficients of row v by their gains
+		 * @param v y-coordinate
+		 * @param re real parts of row v: re[offset, offset + n)
+		 * @param im imaginary parts of row v: im[offset, offset + n)
+		 * @param offset index of coefficient (0,v)
+		 * @param n number of stored coefficients per row
+		 */
+		default void multiplyRow(int v, double[] re, double[] im, int offset, int n) {
+			for (int u = 0; u < n; u++) {
+				final double g = gain(u, v);
+				re[offset + u] *= g;
+				im[offset + u] *= g;
+			}
+		}
+	}
+
+	/**
+	 * Frequency mask
+	 */
+	public static interface Mask {
+		/**
+		 * @param u x-coordinate in [0, spectrum width)
+		 * @param v y-coordinate in [0, spectrum height)
+		 * @return true if coefficient (u,v) is kept, false if it is set to zero
+		 */
+		boolean pass(int u, int v);
+	}
+
+	protected final FrequencyDomain m_layout;	// size and storage of the result
+	protected final int m_depth;				// number of temporary rows needed for evaluation
+
+	protected SpectralExpression(FrequencyDomain layout, int depth) {
+		m_layout = layout;
+		m_depth = depth;
+	}
+
+	/**
+	 * Creates an expression of a spectrum
+	 * @param fd
+	 * @return
+	 */
+	public static SpectralExpression of(FrequencyDomain fd) {
+		return new Source(fd);
+	}
+
+	/**
+	 * Returns the spectrum defining size and storage of the result
+	 * @return
+	 */
+	public FrequencyDomain getLayout() {
+		return m_layout;
+	}
+
+	public SpectralExpression mul(FrequencyDomain fd) {
+		return mul(of(fd));
+	}
+
+	public SpectralExpression mul(SpectralExpression e) {
+		return new Product(this, e);
+	}
+
+	/**
+	 * Element-wise division: division by zero results in zero
+	 * @param fd
+	 * @return
+	 */
+	public SpectralExpression div(FrequencyDomain fd) {
+		return div(of(fd));
+	}
+
+	/**
+	 * Element-wise division: division by zero results in zero
+	 * @param e
+	 * @return
+	 */
+	public SpectralExpression div(SpectralExpression e) {
+		return new Quotient(this, e);
+	}
+
+	/**
+	 * Element-wise regularized division: a*conj(b)/(|b|^2 + r(u,v)). 
+	 * A zero denominator results in zero.
+	 * @param fd divisor b
+	 * @param r regularization term r(u,v) >= 0
+	 * @return
+	 */
+	public SpectralExpression div(FrequencyDomain fd, Filter r) {
+		return div(of(fd), r);
+	}
+
+	/**
+	 * Element-wise regularized division: a*conj(b)/(|b|^2 + r(u,v)).
+	 * A zero denominator results in zero.
+	 * @param e divisor b
+	 * @param r regularization term r(u,v) >= 0
+	 * @return
+	 */
+	public SpectralExpression div(SpectralExpression e, Filter r) {
+		return new RegularizedQuotient(this, e, r);
+	}
+
+	public SpectralExpression scale(double d) {
+		return new Filtered(this, (u, v) -> d);
+	}
+
+	public SpectralExpression filter(Filter f) {
+		return new Filtered(this, f);
+	}
+
+	/**
+	 * Applies a frequency filter bound to the layout of this expression
+	 * @param f
+	 * @return
+	 */
+	public SpectralExpression filter(FrequencyFilter f) {
+		return new Filtered(this, f.bind(m_layout));
+	}
+
+	public SpectralExpression mask(Mask m) {
+		return new Filtered(this, (u, v) -> m.pass(u, v) ? 1 : 0);
+	}
+
+	/**
+	 * Evaluates the expression into a new spectrum
+	 * @return
+	 */
+	public FrequencyDomain evaluate() {
+		FrequencyDomain fd = new FrequencyDomain(m_layout, true);
+
+		evaluate(fd);
+		return fd;
+	}
+
+	/**
+	 * Evaluates the expression into the existing spectrum fd and invalidates cached renderings of fd
+	 * @param fd spectrum of the same size and storage as getLayout(): mustn't be part of the expression
+	 */
+	public void evaluate(FrequencyDomain fd) {
+		evaluate(fd.m_re, fd.m_im);
+		fd.modified();
+	}
+
+	/**
+	 * Evaluates the expression into the given buffers in the storage order of getLayout()
+	 * @param re real parts: length getLayout().m_re.length
+	 * @param im imaginary parts: length getLayout().m_im.length
+	 */
+	public void evaluate(double[] re, double[] im) {
+		assert re.length == m_layout.m_re.length && im.length == m_layout.m_im.length : "wrong buffer size";
+		final int stride = m_layout.getStride();
+
+		Parallel.For(0, m_layout.getSpectrumHeight(),
+			// local data: temporary rows per chunk
+			() -> new double[2*m_depth][stride],
+			// loop body
+			(v, temps) -> {
+				eval(v, stride, re, im, v*stride, temps, 0);
+			}
+		);
+	}
+
+	/**
+	 * Evaluates row v into re[offset, offset + stride) and im[offset, offset + stride)
+	 * @param temps temporary rows: pairs (re, im) starting at 2*level can be used
+	 */
+	protected abstract void eval(int v, int stride, double[] re, double[] im, int offset, double[][] temps, int level);
+
+	private static void check(SpectralExpression a, SpectralExpression b) {
+		assert a.m_layout.m_re.length == b.m_layout.m_re.length && a.m_layout.isHermitian() == b.m_layout.isHermitian()
+			&& a.m_layout.getSpectrumWidth() == b.m_layout.getSpectrumWidth() : "different spectra";
+	}
+
+	private static class Source extends SpectralExpression {
+		Source(FrequencyDomain fd) {
+			super(fd, 0);
+		}
+
+		@Override
+		protected void eval(int v, int stride, double[] re, double[] im, int offset, double[][] temps, int level) {
+			System.arraycopy(m_layout.m_re, v*stride, re, offset, stride);
+			System.arraycopy(m_layout.m_im, v*stride, im, offset, stride);
+		}
+	}
+
+	/**
+	 * Binary operation: the left operand is evaluated into the output row, the right operand into a temporary row,
+	 * unless it is a spectrum, which is read directly
+	 */
+	private static abstract class Binary extends SpectralExpression {
+		final SpectralExpression m_left, m_right;
+
+		Binary(SpectralExpression left, SpectralExpression right) {
+			super(left.m_layout, (right instanceof Source) ? left.m_depth : Math.max(left.m_depth, right.m_depth + 1));
+			check(left, right);
+			m_left = left;
+			m_right = right;
+		}
+
+		@Override
+		protected void eval(int v, int stride, double[] re, double[] im, int offset, double[][] temps, int level) {
+			m_left.eval(v, stride, re, im, offset, temps, level);
+			if (m_right instanceof Source) {
+				combine(v, re, im, offset, m_right.m_layout.m_re, m_right.m_layout.m_im, v*stride, stride);
+			} else {
+				final double[] bRe = temps[2*level], bIm = temps[2*level + 1];
+
+				m_right.eval(v, stride, bRe, bIm, 0, temps, level + 1);
+				combine(v, re, im, offset, bRe, bIm, 0, stride);
+			}
+		}
+
+		/**
+		 * a[aOff, aOff + n) = a op b[bOff, bOff + n) in row v
+		 */
+		abstract void combine(int v, double[] aRe, double[] aIm, int aOff, double[] bRe, double[] bIm, int bOff, int n);
+	}
+
+	private static class Product extends Binary {
+		Product(SpectralExpression left, SpectralExpression right) {
+			super(left, right);
+		}
+
+		@Override
+		void combine(int v, double[] aRe, double[] aIm, int aOff, double[] bRe, double[] bIm, int bOff, int n) {
+			for (int i = aOff, j = bOff; i < aOff + n; i++, j++) {
+				final double re = aRe[i]*bRe[j] - aIm[i]*bIm[j];
+				final double im = aRe[i]*bIm[j] + aIm[i]*bRe[j];
+				aRe[i] = re;
+				aIm[i] = im;
+			}
+		}
+	}
+
+	private static class Quotient extends Binary {
+		Quotient(SpectralExpression left, SpectralExpression right) {
+			super(left, right);
+		}
+
+		@Override
+		void combine(int v, double[] aRe, double[] aIm, int aOff, double[] bRe, double[] bIm, int bOff, int n) {
+			for (int i = aOff, j = bOff; i < aOff + n; i++, j++) {
+				final double den = bRe[j]*bRe[j] + bIm[j]*bIm[j];
+
+				if (den == 0) {
+					// division by zero
+					aRe[i] = 0;
+					aIm[i] = 0;
+				} else {
+					final double re = (aRe[i]*bRe[j] + aIm[i]*bIm[j])/den;
+					final double im = (aIm[i]*bRe[j] - aRe[i]*bIm[j])/den;
+					aRe[i] = re;
+					aIm[i] = im;
+				}
+			}
+		}
+	}
+
+	private static class RegularizedQuotient extends Binary {
+		final Filter m_r;
+
+		RegularizedQuotient(SpectralExpression left, SpectralExpression right, Filter r) {
+			super(left, right);
+			m_r = r;
+		}
+
+		@Override
+		void combine(int v, double[] aRe, double[] aIm, int aOff, double[] bRe, double[] bIm, int bOff, int n) {
+			for (int u = 0; u < n; u++) {
+				final int i = aOff + u, j = bOff + u;
+				final double den = bRe[j]*bRe[j] + bIm[j]*bIm[j] + m_r.gain(u, v);
+
+				if (den == 0) {
+					aRe[i] = 0;
+					aIm[i] = 0;
+				} else {
+					final double re = (aRe[i]*bRe[j] + aIm[i]*bIm[j])/den;
+					final double im = (aIm[i]*bRe[j] - aRe[i]*bIm[j])/den;
+					aRe[i] = re;
+					aIm[i] = im;
+				}
+			}
+		}
+	}
+
+	private static class Filtered extends SpectralExpression {
+		final SpectralExpression m_arg;
+		final Filter m_filter;
+
+		Filtered(SpectralExpression arg, Filter filter) {
+			super(arg.m_layout, arg.m_depth);
+			m_arg = arg;
+			m_filter = filter;
+		}
+
+		@Override
+		protected void eval(int v, int stride, double[] re, double[] im, int offset, double[][] temps, int level) {
+			m_arg.eval(v, stride, re, im, offset, temps, level);
+			m_filter.multiplyRow(v, re, im, offset, stride);
+		}
+	}
+}
@@ -5,51 +5,63 @@ import org.eclipse.swt.graphics.ImageData;
 public class Util {
 
     public static int interpolate(ImageData imageData, double x, double y, int method) {
+        return interpolate(PixelAccess.create(imageData), x, y, method);
+    }
+
+    public static int interpolate(PixelAccess pixels, double x, double y, int method) {
         switch (method) {
             case 0:
-                return Util.interpolateNearestNeighbor(imageData, x, y);
+                return Util.interpolateNearestNeighbor(pixels, x, y);
             case 1:
-                return Util.interpolateBilinear(imageData, x, y);
+                return Util.interpolateBilinear(pixels, x, y);
         }
 
         throw new IllegalArgumentException("Unknown interpolation method");
     }
 
     public static int interpolateNearestNeighbor(ImageData imageData, double x, double y) {
+        return interpolateNearestNeighbor(PixelAccess.create(imageData), x, y);
+    }
+
+    public static int interpolateNearestNeighbor(PixelAccess pixels, double x, double y) {
         int x2 = (int) Math.round(x);
         int y2 = (int) Math.round(y);
 
-        if (x2 < 0 || x2 >= imageData.width || y2 < 0 || y2 >= imageData.height) {
+        if (!pixels.contains(x2, y2)) {
             return 0;
         }
 
-        return imageData.getPixel(x2, y2);
+        return pixels.getPixel(x2, y2);
     }
 
     public static int interpolateBilinear(ImageData imageData, double x, double y) {
+        return interpolateBilinear(PixelAccess.create(imageData), x, y);
+    }
+
+    public static int interpolateBilinear(PixelAccess pixels, double x, double y) {
         int xLow = (int) Math.floor(x);
         int yLow = (int) Math.floor(y);
         int xHigh = (int) Math.ceil(x);
         int yHigh = (int) Math.ceil(y);
 
         int topLeft = -1;
-        if (hasPixel(imageData, xLow, yLow)) {
-            topLeft = imageData.getPixel(xLow, yLow);
+        if (pixels.contains(xLow, yLow)) {
+            topLeft = pixels.getPixel(xLow, yLow);
         }
 
         int bottomLeft = -1;
-        if (hasPixel(imageData, xLow, yHigh)) {
-            bottomLeft = imageData.getPixel(xLow, yHigh);
+        if (pixels.contains(xLow, yHigh)) {
+            bottomLeft = pixels.getPixel(xLow, yHigh);
         }
 
         int topRight = -1;
-        if (hasPixel(imageData, xHigh, yLow)) {
-            topRight = imageData.getPixel(xHigh, yLow);
+        if (pixels.contains(xHigh, yLow)) {
+            topRight = pixels.getPixel(xHigh, yLow);
         }
 
         int bottomRight = -1;
-        if (hasPixel(imageData, xHigh, yHigh)) {
-            bottomRight = imageData.getPixel(xHigh, yHigh);
+        if (pixels.contains(xHigh, yHigh)) {
+            bottomRight = pixels.getPixel(xHigh, yHigh);
         }
 
         double diffY = y - yLow;
@@ -85,16 +97,4 @@ public class Util {
         int averageB = (int) (firstB * firstWeight + secondB * secondWeight) & 0xFF;
         return averageR | averageG | averageB;
     }
-
-    public static boolean hasPixel(ImageData imageData, double x, double y) {
-        if (x < 0 || y < 0) {
-            return false;
-        }
-
-        if (x >= imageData.width || y >= imageData.height) {
-            return false;
-        }
-
-        return true;
-    }
 }